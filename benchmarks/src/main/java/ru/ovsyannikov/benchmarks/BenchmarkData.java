@@ -0,0 +1,128 @@
+package ru.ovsyannikov.benchmarks;
+
+import ru.ovsyannikov.collaborative.UserNeighboursProcessor;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Data for benchmarks from the csv files bundled with the main artifact (user_id,kinopoisk_id,vote per line),
+ * so no MySQL is needed.
+ * The files contain no content attributes, so genres, actors, directors and keywords of movies are generated
+ * deterministically from kinopoisk_id (vocabulary sizes grow with the number of movies like in the real catalog).
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/28/15
+ */
+public class BenchmarkData {
+
+    private static final String[] GENRES = {"драма", "комедия", "мультфильм", "боевик", "триллер", "ужасы", "мелодрама",
+            "фантастика", "криминал", "семейный", "приключения", "детектив", "военный", "история", "биография",
+            "фэнтези", "мюзикл", "документальный", "спорт", "вестерн"};
+
+    private final List<UserNeighboursProcessor.UserVote> votes = new ArrayList<>();
+
+    /**
+     * @param dataSet – name of the csv resource, e.g. `dataset.csv`
+     * @param rows – maximum number of lines to read
+     */
+    public BenchmarkData(String dataSet, int rows) {
+        InputStream stream = BenchmarkData.class.getResourceAsStream("/" + dataSet);
+        if (stream == null) {
+            throw new IllegalArgumentException("no resource " + dataSet);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null && votes.size() < rows) {
+                String[] values = line.split(",");
+                if (values.length < 3) {
+                    continue;
+                }
+
+                UserNeighboursProcessor.UserVote vote = new UserNeighboursProcessor.UserVote();
+                vote.setUserId(Long.parseLong(values[0].trim()));
+                vote.setKinopoiskId(Long.parseLong(values[1].trim()));
+                vote.setVote(Integer.parseInt(values[2].trim()));
+                votes.add(vote);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param data – `dataset:rows`, a @Param of the benchmarks; the rows are the real number of lines of a small dataset,
+     * so that no two params read the same data
+     */
+    public static BenchmarkData of(String data) {
+        String[] dataSetAndRows = data.split(":");
+        if (dataSetAndRows.length != 2) {
+            throw new IllegalArgumentException("dataset:rows expected, got " + data);
+        }
+
+        return new BenchmarkData(dataSetAndRows[0], Integer.parseInt(dataSetAndRows[1]));
+    }
+
+    public Map<Long, List<UserNeighboursProcessor.UserVote>> getVotesByUser() {
+        Map<Long, List<UserNeighboursProcessor.UserVote>> votesByUser = new HashMap<>();
+        for (UserNeighboursProcessor.UserVote vote : votes) {
+            votesByUser.computeIfAbsent(vote.getUserId(), k -> new ArrayList<>()).add(vote);
+        }
+
+        return votesByUser;
+    }
+
+    /**
+     * @return user with the largest number of votes
+     */
+    public long getHeaviestUser() {
+        return getVotesByUser().entrySet().stream()
+                .max(Comparator.comparingInt(e -> e.getValue().size()))
+                .map(Map.Entry::getKey)
+                .orElseThrow(() -> new IllegalStateException("no votes"));
+    }
+
+    /**
+     * @return movies with votes and generated attributes, ordered by kinopoisk_id
+     */
+    public List<Movie> getMovies() {
+        Map<Long, List<Movie.UserVote>> votesByMovie = new TreeMap<>();
+        for (UserNeighboursProcessor.UserVote vote : votes) {
+            votesByMovie.computeIfAbsent(vote.getKinopoiskId(), k -> new ArrayList<>())
+                    .add(new Movie.UserVote(vote.getUserId(), vote.getVote()));
+        }
+
+        int moviesCount = votesByMovie.size();
+        List<Movie> movies = new ArrayList<>();
+        for (Map.Entry<Long, List<Movie.UserVote>> entry : votesByMovie.entrySet()) {
+            Random random = new Random(entry.getKey());
+            Movie movie = new Movie("movie " + entry.getKey(), "director " + random.nextInt(moviesCount / 3 + 1),
+                    sample(random, 3, GENRES.length, i -> GENRES[i]),
+                    sample(random, 10, moviesCount * 2 + 1, i -> "actor " + i));
+            movie.setId(entry.getKey());
+            movie.setKinopoiskId(entry.getKey());
+            movie.setYear(1950 + random.nextInt(65));
+            movie.setKeywords(sample(random, 15, moviesCount / 2 + 1, i -> "keyword " + i));
+            movie.setVotes(entry.getValue());
+            movies.add(movie);
+        }
+
+        return movies;
+    }
+
+    private static List<String> sample(Random random, int maxCount, int vocabulary, java.util.function.IntFunction<String> value) {
+        int count = 1 + random.nextInt(maxCount);
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            result.add(value.apply(random.nextInt(vocabulary)));
+        }
+
+        return new ArrayList<>(result);
+    }
+}
@@ -0,0 +1,146 @@
+package ru.ovsyannikov.benchmarks;
+
+import ru.ovsyannikov.parsing.MovieParser;
+import ru.ovsyannikov.parsing.crawler.AdaptiveRateLimiter;
+import ru.ovsyannikov.parsing.crawler.CrawlFrontier;
+import ru.ovsyannikov.parsing.crawler.CrawlerEngine;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.io.File;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Crawls a {@link KinopoiskStubServer} with {@link CrawlerEngine} and checks that every page is saved exactly once
+ * and parsed as the page fetched before the load despite server errors and bans.
+ * The first run crashes halfway between saving a batch and marking it done in the frontier; the second one resumes it
+ * from the frontier file with the ids not saved yet, as {@link MovieParser#process} does, through an outage of the server
+ * that is longer than the retries of a page.
+ * <pre>
+ * java -cp target/benchmarks.jar ru.ovsyannikov.benchmarks.CrawlerLoadTest [pages] [latency ms] [error rate] [server max rate] [outage ms]
+ * </pre>
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/8/15
+ */
+public class CrawlerLoadTest {
+
+    /**
+     * Stand-in of the movies table, counts movies saved twice and parsed wrong
+     */
+    private static class Storage {
+
+        private final Set<Long> saved = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        private final AtomicInteger wrong = new AtomicInteger();
+        private final Movie expected;
+        private volatile int crashAfter = Integer.MAX_VALUE;
+        private volatile boolean crashed;
+
+        Storage(Movie expected) {
+            this.expected = expected;
+        }
+
+        void save(List<Movie> movies) {
+            for (Movie movie : movies) {
+                if (!saved.add(movie.getKinopoiskId())) {
+                    duplicates.incrementAndGet();
+                }
+                if (!isParsedAs(movie, expected)) {
+                    wrong.incrementAndGet();
+                }
+            }
+            if (!crashed && saved.size() >= crashAfter) {
+                // the batch is committed, the frontier does not learn about it
+                crashed = true;
+                throw new IllegalStateException("crash after commit");
+            }
+        }
+
+        List<Long> getUnsaved(List<Long> ids) {
+            return ids.stream().filter(id -> !saved.contains(id)).collect(Collectors.toList());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+        int serverMaxRate = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+        long outage = args.length > 4 ? Long.parseLong(args[4]) : 5000;
+
+        File frontierFile = File.createTempFile("crawler", ".frontier");
+        frontierFile.delete();
+        List<Long> ids = LongStream.rangeClosed(1, pages).boxed().collect(Collectors.toList());
+        MovieParser parser = new MovieParser();
+
+        try (KinopoiskStubServer server = new KinopoiskStubServer(latency, 0, serverMaxRate, 2000)) {
+            Movie expected = new Movie();
+            expected.fillInFields(parser.fetchDocument(String.format(server.getUrlPattern(), 0)));
+            server.setErrorRate(errorRate);
+            Storage storage = new Storage(expected);
+            storage.crashAfter = pages / 2;
+
+            long start = System.currentTimeMillis();
+            Thread first = new Thread(() -> {
+                try {
+                    run(server, parser, frontierFile, ids, storage);
+                } catch (InterruptedException ignore) {
+                }
+            });
+            first.start();
+            while (!storage.crashed && first.isAlive()) {
+                Thread.sleep(1);
+            }
+            first.interrupt();
+            first.join();
+            int savedByFirst = storage.saved.size();
+
+            Thread outageStarter = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    server.outage(outage);
+                } catch (InterruptedException ignore) {
+                }
+            });
+            outageStarter.setDaemon(true);
+            outageStarter.start();
+            CrawlerEngine.Statistics statistics = run(server, parser, frontierFile, storage.getUnsaved(ids), storage);
+            long millis = System.currentTimeMillis() - start;
+
+            System.out.printf("%d pages in %d ms (%.1f pages/s): saved %d (%d by the first run), duplicates %d, wrong %d; second run: %s%n",
+                    pages, millis, pages * 1000.0 / millis, storage.saved.size(), savedByFirst, storage.duplicates.get(),
+                    storage.wrong.get(), statistics);
+            System.out.printf("server: served %d, errors %d, forbidden %d, dropped %d%n", server.getServed(), server.getErrors(),
+                    server.getForbidden(), server.getDropped());
+        } finally {
+            frontierFile.delete();
+        }
+    }
+
+    private static CrawlerEngine.Statistics run(KinopoiskStubServer server, MovieParser parser, File frontierFile, List<Long> ids,
+                                                Storage storage) throws InterruptedException {
+        try (CrawlFrontier frontier = new CrawlFrontier(frontierFile)) {
+            CrawlerEngine engine = new CrawlerEngine(parser::fetchDocument, server.getUrlPattern(), frontier, storage::save);
+            engine.setRateLimiter(new AdaptiveRateLimiter(1, 100, 1000, 10000));
+            engine.setConcurrency(32);
+            engine.setHostConcurrency(16);
+            // about 1.5 s of retries per page, shorter than the outage
+            engine.setRetries(5, 100);
+            engine.setBatchSize(20);
+
+            return engine.crawl(ids);
+        }
+    }
+
+    private static boolean isParsedAs(Movie movie, Movie expected) {
+        return Objects.equals(expected.getTitle(), movie.getTitle()) && Objects.equals(expected.getYear(), movie.getYear())
+                && Objects.equals(expected.getDirector(), movie.getDirector())
+                && Objects.equals(expected.getActors(), movie.getActors()) && Objects.equals(expected.getGenres(), movie.getGenres());
+    }
+}
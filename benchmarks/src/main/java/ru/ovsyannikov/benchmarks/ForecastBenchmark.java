@@ -0,0 +1,48 @@
+package ru.ovsyannikov.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ovsyannikov.collaborative.MovieMarkForecaster;
+import ru.ovsyannikov.collaborative.UserNeighboursProcessor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forecast of the marks for a single (the heaviest) user with precomputed neighbours
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/28/15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ForecastBenchmark {
+
+    @Param({"dataset.csv:5000", "dataset.csv:20000", "dataset.csv:84355", "dataset-popular.csv:3255",
+            "dataset-test.csv:5000", "dataset-test.csv:20000", "dataset-test.csv:84355"})
+    public String data;
+
+    @Param({"5", "50"})
+    public int neighboursCount;
+
+    private MovieMarkForecaster forecaster;
+    private Map<Long, Double> neighbours;
+    private long userId;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData votes = BenchmarkData.of(data);
+        UserNeighboursProcessor processor = new UserNeighboursProcessor(votes.getVotesByUser());
+        userId = votes.getHeaviestUser();
+        neighbours = processor.getUserNeighbours(userId, neighboursCount);
+        forecaster = new MovieMarkForecaster(processor.getVoteMatrix());
+    }
+
+    @Benchmark
+    public Map<Long, Double> forecast() {
+        return forecaster.forecastMarks(5, userId, neighbours);
+    }
+}
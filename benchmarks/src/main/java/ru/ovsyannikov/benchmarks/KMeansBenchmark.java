@@ -0,0 +1,110 @@
+package ru.ovsyannikov.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+import ru.ovsyannikov.clustering.seeding.FurthestMoviesSeeding;
+import ru.ovsyannikov.clustering.seeding.KMeansParallelSeeding;
+import ru.ovsyannikov.clustering.seeding.KMeansPlusPlusSeeding;
+import ru.ovsyannikov.clustering.seeding.SeedingStrategy;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One k-means iteration as {@link KMeansProcessor#performClustering} runs it ({@link KMeansProcessor#iterate}:
+ * parallel assignment of every movie to the nearest center and incremental update of the centers by the moved movies)
+ * and seeding of the initial centers; the number of clusters is sqrt(n/2) like in {@link KMeansProcessor#doClustering}.
+ * Datasets are paired with row counts, dataset-popular.csv has 3255 rows only
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/28/15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KMeansBenchmark {
+
+    /**
+     * Seeding strategy, a parameter of {@link #seeds} only
+     */
+    @State(Scope.Benchmark)
+    public static class Seeding {
+
+        @Param({"furthest", "kmeans++", "kmeans||"})
+        public String seeding;
+
+        private SeedingStrategy strategy;
+
+        @Setup
+        public void setUp() {
+            strategy = "furthest".equals(seeding) ? new FurthestMoviesSeeding() :
+                    "kmeans++".equals(seeding) ? new KMeansPlusPlusSeeding() : new KMeansParallelSeeding();
+        }
+    }
+
+    /**
+     * Centers of a round-robin partition, rebuilt before every iteration: the cost of an iteration does not depend
+     * on the quality of centers much, and most of the movies move as on the first iterations
+     */
+    @State(Scope.Thread)
+    public static class Iteration {
+
+        private List<EncodedClusterCenter> centers;
+        private int[] assignments;
+        private int[] nextAssignments;
+
+        @Setup(Level.Invocation)
+        public void setUp(KMeansBenchmark benchmark) {
+            EncodedMovie[] movies = benchmark.movies;
+            assignments = new int[movies.length];
+            nextAssignments = new int[movies.length];
+            List<List<EncodedMovie>> clusters = new ArrayList<>();
+            for (int c = 0; c < benchmark.numClusters; c++) {
+                clusters.add(new ArrayList<>());
+            }
+            for (int i = 0; i < movies.length; i++) {
+                assignments[i] = i % benchmark.numClusters;
+                clusters.get(assignments[i]).add(movies[i]);
+            }
+
+            centers = new ArrayList<>();
+            clusters.forEach(cluster -> centers.add(new EncodedClusterCenter(cluster)));
+        }
+    }
+
+    @Param({"dataset.csv:5000", "dataset.csv:20000", "dataset.csv:84355", "dataset-popular.csv:3255"})
+    public String data;
+
+    private KMeansProcessor processor;
+    private EncodedMovie[] movies;
+    private int numClusters;
+
+    @Setup
+    public void setUp() {
+        List<Movie> dataMovies = BenchmarkData.of(data).getMovies();
+        FeatureDictionary dictionary = new FeatureDictionary();
+        movies = dataMovies.stream().map(dictionary::encode).toArray(EncodedMovie[]::new);
+        numClusters = Math.max(1, (int) Math.sqrt(movies.length / 2));
+        // the default parallelism, as in production
+        processor = new KMeansProcessor();
+    }
+
+    @Benchmark
+    public int[] seeds(Seeding seeding) {
+        return seeding.strategy.selectSeeds(movies, numClusters, processor, new Random(1));
+    }
+
+    @Benchmark
+    public int iteration(Iteration iteration) {
+        return processor.iterate(movies, iteration.centers, iteration.assignments, iteration.nextAssignments);
+    }
+}
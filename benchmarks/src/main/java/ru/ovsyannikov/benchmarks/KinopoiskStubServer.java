@@ -0,0 +1,166 @@
+package ru.ovsyannikov.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local http server imitating kinopoisk for crawler tests: /film/&lt;id&gt; returns the bundled page testpages/into_the_wild.html
+ * after latencyMillis, a share of errorRate of requests fails with 500, and a client exceeding maxRate requests per second
+ * is banned (403 to every request) for banMillis. During an {@link #outage} connections are closed without a response
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/8/15
+ */
+public class KinopoiskStubServer implements AutoCloseable {
+
+    private static final String PAGE = "testpages/into_the_wild.html";
+
+    private final byte[] page;
+    private final long latencyMillis;
+    private volatile double errorRate;
+    private final int maxRate;
+    private final long banMillis;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // times of the requests of the last second
+    private final Deque<Long> requests = new ArrayDeque<>();
+    private long bannedUntil;
+    private volatile long outageUntil;
+
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger forbidden = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    public KinopoiskStubServer(long latencyMillis, double errorRate, int maxRate, long banMillis) throws IOException {
+        this.page = readPage();
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.maxRate = maxRate;
+        this.banMillis = banMillis;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.createContext("/film/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return url pattern of the movie pages for {@link ru.ovsyannikov.parsing.crawler.CrawlerEngine}
+     */
+    public String getUrlPattern() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/film/%d";
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Drops every connection for the next millis
+     */
+    public void outage(long millis) {
+        outageUntil = System.currentTimeMillis() + millis;
+    }
+
+    public int getServed() {
+        return served.get();
+    }
+
+    public int getErrors() {
+        return errors.get();
+    }
+
+    public int getForbidden() {
+        return forbidden.get();
+    }
+
+    public int getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (System.currentTimeMillis() < outageUntil) {
+            dropped.incrementAndGet();
+            exchange.close();
+            return;
+        }
+
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (isBanned()) {
+            forbidden.incrementAndGet();
+            respond(exchange, 403, new byte[0]);
+        } else if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(exchange, 500, new byte[0]);
+        } else {
+            served.incrementAndGet();
+            respond(exchange, 200, page);
+        }
+    }
+
+    private synchronized boolean isBanned() {
+        long now = System.currentTimeMillis();
+        if (now < bannedUntil) {
+            return true;
+        }
+
+        requests.add(now);
+        while (requests.peek() <= now - 1000) {
+            requests.poll();
+        }
+        if (requests.size() > maxRate) {
+            bannedUntil = now + banMillis;
+            requests.clear();
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static byte[] readPage() throws IOException {
+        try (InputStream input = KinopoiskStubServer.class.getClassLoader().getResourceAsStream(PAGE)) {
+            if (input == null) {
+                throw new IllegalStateException(PAGE + " is not on the classpath");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.ovsyannikov.benchmarks;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the movie fields from a kinopoisk page (testpages/into_the_wild.html) by css selectors and in a single pass,
+ * from a parsed document and with the parsing. Single-threaded, so the score is pages per second per core
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/9/15
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MovieExtractionBenchmark {
+
+    private static final String PAGE = "testpages/into_the_wild.html";
+
+    @Param({"SELECTORS", "SINGLE_PASS"})
+    public Movie.Extraction extraction;
+
+    private String html;
+    private Document document;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream input = MovieExtractionBenchmark.class.getClassLoader().getResourceAsStream(PAGE)) {
+            document = Jsoup.parse(input, "utf-8", "http://kinopoisk.ru");
+        }
+        html = document.outerHtml();
+    }
+
+    @Benchmark
+    public Movie extract() {
+        Movie movie = new Movie();
+        movie.fillInFields(document, extraction);
+        return movie;
+    }
+
+    @Benchmark
+    public Movie parseAndExtract() {
+        Movie movie = new Movie();
+        movie.fillInFields(Jsoup.parse(html, "http://kinopoisk.ru"), extraction);
+        return movie;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.ovsyannikov.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ovsyannikov.collaborative.UserNeighboursProcessor;
+import ru.ovsyannikov.collaborative.UserSimilarityIndex;
+import ru.ovsyannikov.collaborative.VoteMatrix;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Neighbour search for the heaviest user: from scratch and from the precomputed index
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/28/15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NeighboursBenchmark {
+
+    @Param({"dataset.csv:5000", "dataset.csv:20000", "dataset.csv:84355", "dataset-popular.csv:3255",
+            "dataset-test.csv:5000", "dataset-test.csv:20000", "dataset-test.csv:84355"})
+    public String data;
+
+    private UserNeighboursProcessor processor;
+    private UserSimilarityIndex index;
+    private long userId;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData votes = BenchmarkData.of(data);
+        processor = new UserNeighboursProcessor(votes.getVotesByUser());
+        index = new UserSimilarityIndex(processor.getVoteMatrix());
+        userId = votes.getHeaviestUser();
+    }
+
+    @Benchmark
+    public Map<Long, Double> neighbours() {
+        return processor.getUserNeighbours(userId, 5);
+    }
+
+    @Benchmark
+    public Map<Long, Double> indexedNeighbours() {
+        return index.getUserNeighbours(userId, 5);
+    }
+
+    @Benchmark
+    public VoteMatrix voteMatrix() {
+        return VoteMatrix.fromUserVotes(processor.getVotesByUser());
+    }
+}
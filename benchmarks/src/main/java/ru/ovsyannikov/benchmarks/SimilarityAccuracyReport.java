@@ -0,0 +1,180 @@
+package ru.ovsyannikov.benchmarks;
+
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+import ru.ovsyannikov.clustering.similarity.BitsetSetSimilarity;
+import ru.ovsyannikov.clustering.similarity.MinHashSetSimilarity;
+import ru.ovsyannikov.clustering.similarity.SetSimilarity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Accuracy of {@link SetSimilarity} implementations against the exact similarity, per attribute:
+ * mean, root mean square and maximum absolute error, share of similar pairs estimated as dissimilar (cut off by LSH)
+ * and time per comparison with warm sketches.
+ * Pairs are sampled twice: uniformly (mostly dissimilar sets) and among sets sharing a value.
+ * Long sets (`long keywords`, 50-400 values) are generated, as keywords of the bundled datasets are short.
+ * <pre>
+ * java -cp target/benchmarks.jar ru.ovsyannikov.benchmarks.SimilarityAccuracyReport [dataset.csv] [rows] [pairs]
+ * </pre>
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/5/15
+ */
+public class SimilarityAccuracyReport {
+
+    private static final String[] ATTRIBUTE_NAMES = {"actors", "genres", "directors", "keywords"};
+    private static final int TIMED_PASSES = 5;
+
+    public static void main(String[] args) {
+        String dataSet = args.length > 0 ? args[0] : "dataset.csv";
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 84355;
+        int pairs = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        Map<String, SetSimilarity> similarities = new LinkedHashMap<>();
+        similarities.put("exact", SetSimilarity.EXACT);
+        similarities.put("bitset", new BitsetSetSimilarity());
+        similarities.put("minhash 64/64", new MinHashSetSimilarity());
+        similarities.put("minhash 64/32", new MinHashSetSimilarity(64, 32, 1));
+        similarities.put("minhash 64/16", new MinHashSetSimilarity(64, 16, 1));
+        similarities.put("minhash 128/64", new MinHashSetSimilarity(128, 64, 1));
+
+        FeatureDictionary dictionary = new FeatureDictionary();
+        List<EncodedMovie> movies = new ArrayList<>();
+        new BenchmarkData(dataSet, rows).getMovies().forEach(movie -> movies.add(dictionary.encode(movie)));
+
+        Random random = new Random(1);
+        System.out.printf("%s, %d rows, %d movies, %d pairs%n", dataSet, rows, movies.size(), pairs);
+        printHeader();
+        for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT; attribute++) {
+            List<int[]> sets = new ArrayList<>();
+            for (EncodedMovie movie : movies) {
+                sets.add(movie.getValues(attribute));
+            }
+            report(ATTRIBUTE_NAMES[attribute], sets, pairs, similarities, random);
+        }
+        report("long keywords", generateLongSets(2000, 20000, random), pairs, similarities, random);
+    }
+
+    private static void report(String name, List<int[]> sets, int pairsCount, Map<String, SetSimilarity> similarities, Random random) {
+        int[][][] uniform = new int[pairsCount][][];
+        for (int i = 0; i < pairsCount; i++) {
+            uniform[i] = new int[][]{sets.get(random.nextInt(sets.size())), sets.get(random.nextInt(sets.size()))};
+        }
+        int[][][] overlapping = sampleOverlapping(sets, pairsCount, random);
+
+        for (Map.Entry<String, SetSimilarity> entry : similarities.entrySet()) {
+            print(name + ", uniform", entry.getKey(), measure(uniform, entry.getValue()));
+            // sets of one value sharing it are the same set, there are no such pairs e.g. for directors
+            if (overlapping.length > 0) {
+                print(name + ", sharing a value", entry.getKey(), measure(overlapping, entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @return pairs of different sets with at least one common value
+     */
+    private static int[][][] sampleOverlapping(List<int[]> sets, int pairsCount, Random random) {
+        Map<Integer, List<int[]>> postings = new HashMap<>();
+        for (int[] set : sets) {
+            if (set != null) {
+                for (int value : set) {
+                    postings.computeIfAbsent(value, v -> new ArrayList<>()).add(set);
+                }
+            }
+        }
+
+        List<int[][]> pairs = new ArrayList<>();
+        for (int attempt = 0; attempt < pairsCount * 20 && pairs.size() < pairsCount; attempt++) {
+            int[] set = sets.get(random.nextInt(sets.size()));
+            if (set == null || set.length == 0) {
+                continue;
+            }
+            List<int[]> sharing = postings.get(set[random.nextInt(set.length)]);
+            int[] other = sharing.get(random.nextInt(sharing.size()));
+            if (other != set) {
+                pairs.add(new int[][]{set, other});
+            }
+        }
+
+        return pairs.toArray(new int[pairs.size()][][]);
+    }
+
+    /**
+     * @return mean, rms and max error, share of missed pairs, ns per comparison
+     */
+    private static double[] measure(int[][][] pairs, SetSimilarity similarity) {
+        double errorSum = 0;
+        double squaredErrorSum = 0;
+        double maxError = 0;
+        int similar = 0;
+        int missed = 0;
+        for (int[][] pair : pairs) {
+            double exact = SetSimilarity.EXACT.getSimilarity(pair[0], pair[1]);
+            double estimate = similarity.getSimilarity(pair[0], pair[1]);
+            double error = Math.abs(exact - estimate);
+            errorSum += error;
+            squaredErrorSum += error * error;
+            maxError = Math.max(maxError, error);
+            if (exact > 0) {
+                similar++;
+                if (estimate == 0) {
+                    missed++;
+                }
+            }
+        }
+
+        // sketches are warm after the first pass, the best of several passes is taken to skip the warm-up of the JIT
+        double checksum = 0;
+        long nanos = Long.MAX_VALUE;
+        for (int pass = 0; pass < TIMED_PASSES; pass++) {
+            long start = System.nanoTime();
+            for (int[][] pair : pairs) {
+                checksum += similarity.getSimilarity(pair[0], pair[1]);
+            }
+            nanos = Math.min(nanos, System.nanoTime() - start);
+        }
+        if (checksum < 0) {
+            throw new IllegalStateException();
+        }
+
+        return new double[]{errorSum / pairs.length, Math.sqrt(squaredErrorSum / pairs.length), maxError,
+                similar == 0 ? 0 : (double) missed / similar, (double) nanos / pairs.length};
+    }
+
+    /**
+     * Sets of 50-400 values: each is a random subset of one of 100 topics (blocks of the vocabulary), so sets of a topic overlap
+     */
+    private static List<int[]> generateLongSets(int count, int vocabulary, Random random) {
+        int topics = 100;
+        int topicSize = vocabulary / topics;
+        List<int[]> sets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int topic = random.nextInt(topics);
+            int size = 50 + random.nextInt(351);
+            int[] set = random.ints(size, 0, 2 * topicSize)
+                    .map(value -> (topic * topicSize + value) % vocabulary)
+                    .distinct()
+                    .sorted()
+                    .toArray();
+            sets.add(set);
+        }
+
+        return sets;
+    }
+
+    private static void printHeader() {
+        System.out.printf("%-30s %-16s %10s %10s %10s %10s %10s%n", "sets", "similarity", "mean err", "rms err", "max err", "missed", "ns/pair");
+    }
+
+    private static void print(String sets, String similarity, double[] result) {
+        System.out.printf("%-30s %-16s %10.5f %10.5f %10.5f %9.2f%% %10.1f%n", sets, similarity,
+                result[0], result[1], result[2], result[3] * 100, result[4]);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.ovsyannikov.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ovsyannikov.elicitation.SplitterDeterminant;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection of the movie splitting users best (a step of the interactive elicitation)
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/28/15
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitterBenchmark {
+
+    @Param({"dataset.csv:5000", "dataset.csv:20000", "dataset.csv:84355", "dataset-popular.csv:3255",
+            "dataset-test.csv:5000", "dataset-test.csv:20000", "dataset-test.csv:84355"})
+    public String data;
+
+    private SplitterDeterminant splitterDeterminant;
+    private List<Movie> movies;
+
+    @Setup
+    public void setUp() {
+        movies = BenchmarkData.of(data).getMovies();
+        splitterDeterminant = new SplitterDeterminant();
+    }
+
+    @Benchmark
+    public Movie splitter() {
+        return splitterDeterminant.getSplitter(movies);
+    }
+}
@@ -0,0 +1,152 @@
+package ru.ovsyannikov;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs queries by long lists of ids: the ids are split into chunks of a fixed size, every chunk is queried
+ * with a prepared statement `... in (?, ?, ...)` and chunks run concurrently on a bounded pool.
+ * The last chunk is padded with its last id, so every query has exactly chunkSize parameters and one statement text –
+ * the pooled connections prepare it once and take it from their statement cache afterwards.
+ * Results are merged in the order of the requested ids.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/6/15
+ */
+@Service
+public class ChunkedIdQueryExecutor implements DisposableBean {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    public ChunkedIdQueryExecutor() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param chunkSize – количество id в одном запросе
+     * @param parallelism – максимальное количество одновременных запросов (соединений)
+     */
+    public ChunkedIdQueryExecutor(int chunkSize, int parallelism) {
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("chunk size and parallelism must be positive!");
+        }
+
+        this.chunkSize = chunkSize;
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "chunked-id-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param ids – requested ids, duplicates are queried once
+     * @param chunkQuery – query of a chunk of exactly chunkSize ids, see {@link #getPlaceholders}
+     * @param idOf – id of a result row, rows are ordered by the position of their id in ids
+     *               (rows with the same id keep the order of the query)
+     */
+    public <T> List<T> query(List<Long> ids, Function<List<Long>, List<T>> chunkQuery, Function<T, Long> idOf) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (distinctIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<List<Long>> chunks = split(distinctIds, chunkSize);
+        List<T> result = new ArrayList<>();
+        if (chunks.size() == 1) {
+            result.addAll(chunkQuery.apply(chunks.get(0)));
+        } else {
+            List<Future<List<T>>> futures = new ArrayList<>();
+            for (List<Long> chunk : chunks) {
+                futures.add(executor.submit(() -> chunkQuery.apply(chunk)));
+            }
+            for (Future<List<T>> future : futures) {
+                result.addAll(get(future, futures));
+            }
+        }
+
+        Map<Long, Integer> positions = new HashMap<>();
+        for (int i = 0; i < distinctIds.size(); i++) {
+            positions.put(distinctIds.get(i), i);
+        }
+        // stable: rows of one id stay in the order of the query
+        Collections.sort(result, (row1, row2) -> Integer.compare(position(positions, idOf.apply(row1)), position(positions, idOf.apply(row2))));
+
+        return result;
+    }
+
+    /**
+     * @return chunks of exactly chunkSize values, the last one is padded with its last value
+     */
+    public static <T> List<List<T>> split(List<T> values, int chunkSize) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += chunkSize) {
+            List<T> chunk = new ArrayList<>(values.subList(from, Math.min(from + chunkSize, values.size())));
+            T last = chunk.get(chunk.size() - 1);
+            while (chunk.size() < chunkSize) {
+                chunk.add(last);
+            }
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * @return `?, ?, ..., ?` for count parameters
+     */
+    public static String getPlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+
+        return placeholders.toString();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private static int position(Map<Long, Integer> positions, Long id) {
+        Integer position = positions.get(id);
+        return position == null ? Integer.MAX_VALUE : position;
+    }
+
+    /**
+     * Waits for the chunk; on failure the rest of the chunks are cancelled and the cause is rethrown
+     */
+    private static <T> List<T> get(Future<List<T>> future, List<Future<List<T>>> futures) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for chunk queries");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
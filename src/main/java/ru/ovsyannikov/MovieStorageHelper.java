@@ -1,24 +1,28 @@
 package ru.ovsyannikov;
 
 import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
 import ru.ovsyannikov.parsing.model.Movie;
 
 import java.sql.PreparedStatement;
-import java.sql.Statement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,30 +32,23 @@ import java.util.stream.Collectors;
 @Service
 public class MovieStorageHelper {
 
-    public static final ResultSetExtractor<List<Movie>> MOVIE_EXTRACTOR = resultSet -> {
-        List<Movie> result = new ArrayList<>();
-        while (resultSet.next()) {
-            Movie movie = new Movie();
-            movie.setId(resultSet.getLong("movie_id"));
-            movie.setKinopoiskId(resultSet.getLong("kinopoisk_id"));
-            movie.setTitle(resultSet.getString("title"));
-            movie.setYear(resultSet.getInt("year"));
-            movie.setDirector(resultSet.getString("director"));
-            movie.setActors(Arrays.asList(StringUtils.split(resultSet.getString("actors"), ",")));
-            movie.setGenres(Arrays.asList(StringUtils.split(resultSet.getString("genres"), ",")));
-//            movie.setKeywords(Arrays.asList(StringUtils.split(resultSet.getString("keywords"), ",")));
+    /**
+     * Listener of the users' votes changes (e.g. to keep in-memory indexes up to date)
+     */
+    public interface VoteListener {
 
-            List<String> votes = Arrays.asList(StringUtils.split(resultSet.getString("user_votes"), ","));
-            movie.setVotes(votes.stream()
-                    .map(v -> new Movie.UserVote(NumberUtils.createLong(v.split("-")[0]),
-                            NumberUtils.createInteger(v.split("-")[1])))
-                    .collect(Collectors.toList()));
+        void onVoteSet(Long userId, Long kinopoiskId, Integer vote);
 
-            result.add(movie);
-        }
+        void onVoteDeleted(Long userId, Long kinopoiskId);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MovieStorageHelper.class);
 
-        return result;
-    };
+    // MySQL Connector/J streams rows one by one only for forward-only read-only statements with this fetch size,
+    // other drivers take a positive number of rows per round trip
+    public static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+    // ids per lookup when saving movies
+    private static final int SAVE_CHUNK_SIZE = 500;
 
     @Autowired
     public JdbcTemplate template;
@@ -59,60 +56,100 @@ public class MovieStorageHelper {
     @Autowired
     public TransactionTemplate transactionTemplate;
 
+    @Autowired
+    public ChunkedIdQueryExecutor chunkedQueries;
+
+    private final List<VoteListener> voteListeners = new CopyOnWriteArrayList<>();
+    private final NameDictionary actors = new NameDictionary("actors", "actor_id", "name");
+    private final NameDictionary genres = new NameDictionary("genres", "genre_id", "genre");
+    private int fetchSize = STREAMING_FETCH_SIZE;
+
+    public void addVoteListener(VoteListener listener) {
+        voteListeners.add(listener);
+    }
+
+    public void removeVoteListener(VoteListener listener) {
+        voteListeners.remove(listener);
+    }
+
+    /**
+     * @param fetchSize – fetch size of the queries loading movies, {@link #STREAMING_FETCH_SIZE} by default
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
 
     public Boolean saveMovie(Movie movie) {
-        return transactionTemplate.execute(transactionStatus -> {
-                // saving the movie
-                KeyHolder keyHolder = new GeneratedKeyHolder();
-                template.update(con -> {
-                    PreparedStatement statement = con.prepareStatement("insert into movies(kinopoisk_id, title, year, director) " +
-                            "values (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
-                    statement.setLong(1, movie.getKinopoiskId());
-                    statement.setString(2, movie.getTitle());
-                    statement.setInt(3, movie.getYear());
-                    statement.setString(4, movie.getDirector());
-
-                    return statement;
-                }, keyHolder);
-
-                Long movieId = keyHolder.getKey().longValue();
-
-                // saving actors
-                for (String actor : movie.getActors()) {
-                    Long actorId;
-                    try {
-                        template.update(con -> {
-                            PreparedStatement statement = con.prepareStatement("insert into actors(name) values (?)", Statement.RETURN_GENERATED_KEYS);
-                            statement.setString(1, actor);
-                            return statement;
-                        }, keyHolder);
-                        actorId = keyHolder.getKey().longValue();
-                    } catch (Exception e) {
-                        actorId = template.queryForObject("select actor_id from actors where name = ?", Long.class, actor);
-                    }
-
-                    template.update("replace into movie_actors values (?, ?)", movieId, actorId);
-                }
-
-                // saving genres
-                for (String genre : movie.getGenres()) {
-                    Long genreId;
-                    try {
-                        template.update(con -> {
-                            PreparedStatement statement = con.prepareStatement("insert into genres(genre) values (?)", Statement.RETURN_GENERATED_KEYS);
-                            statement.setString(1, genre);
-                            return statement;
-                        }, keyHolder);
-                        genreId = keyHolder.getKey().longValue();
-                    } catch (Exception e) {
-                        genreId = template.queryForObject("select genre_id from genres where genre = ?", Long.class, genre);
-                    }
-
-                    template.update("replace into movie_genres values (?, ?)", movieId, genreId);
-                }
-
-                return true;
+        return saveMovies(Collections.singletonList(movie)) == 1;
+    }
+
+    /**
+     * Saves movies with their actors and genres in one transaction:
+     * movies and join tables are written by JDBC batches, ids of actors and genres are taken from in-process caches
+     * and only unknown names are inserted (one multi-row insert ignoring duplicates) and looked up (one select) per chunk.
+     * Movies with a kinopoisk_id already in the table (or repeated in the list) are skipped, so saving a batch again is harmless
+     * @return number of saved movies
+     */
+    public int saveMovies(List<Movie> movies) {
+        if (movies.isEmpty()) {
+            return 0;
+        }
+
+        // names inserted in the transaction are cached only after the commit
+        Map<String, Long> newActors = new HashMap<>();
+        Map<String, Long> newGenres = new HashMap<>();
+        List<Movie> saved = transactionTemplate.execute(transactionStatus -> {
+            List<Long> kinopoiskIds = movies.stream().map(Movie::getKinopoiskId).distinct().collect(Collectors.toList());
+            Map<Long, Long> stored = getMovieIds(kinopoiskIds);
+            Map<Long, Movie> newMovies = new LinkedHashMap<>();
+            movies.stream()
+                    .filter(movie -> !stored.containsKey(movie.getKinopoiskId()))
+                    .forEach(movie -> newMovies.putIfAbsent(movie.getKinopoiskId(), movie));
+            if (newMovies.isEmpty()) {
+                return Collections.<Movie>emptyList();
+            }
+
+            template.batchUpdate("insert into movies(kinopoisk_id, title, year, director) values (?, ?, ?, ?)",
+                    newMovies.values().stream()
+                            .map(movie -> new Object[]{movie.getKinopoiskId(), movie.getTitle(), movie.getYear(), movie.getDirector()})
+                            .collect(Collectors.toList()));
+            Map<Long, Long> movieIds = getMovieIds(new ArrayList<>(newMovies.keySet()));
+
+            Map<String, Long> actorIds = actors.resolve(template, newMovies.values().stream().map(Movie::getActors), newActors);
+            Map<String, Long> genreIds = genres.resolve(template, newMovies.values().stream().map(Movie::getGenres), newGenres);
+            List<Object[]> movieActors = new ArrayList<>();
+            List<Object[]> movieGenres = new ArrayList<>();
+            for (Movie movie : newMovies.values()) {
+                Long movieId = movieIds.get(movie.getKinopoiskId());
+                nullToEmpty(movie.getActors()).forEach(actor -> movieActors.add(new Object[]{movieId, actorIds.get(actor)}));
+                nullToEmpty(movie.getGenres()).forEach(genre -> movieGenres.add(new Object[]{movieId, genreIds.get(genre)}));
+            }
+            template.batchUpdate("replace into movie_actors values (?, ?)", movieActors);
+            template.batchUpdate("replace into movie_genres values (?, ?)", movieGenres);
+
+            return new ArrayList<>(newMovies.values());
         });
+        actors.publish(newActors);
+        genres.publish(newGenres);
+        if (saved.size() < movies.size()) {
+            logger.info("{} of {} movies are already saved and skipped", movies.size() - saved.size(), movies.size());
+        }
+
+        return saved.size();
+    }
+
+    /**
+     * @return kinopoisk_id -> movie_id of the stored movies
+     */
+    private Map<Long, Long> getMovieIds(List<Long> kinopoiskIds) {
+        Map<Long, Long> movieIds = new HashMap<>();
+        for (List<Long> chunk : ChunkedIdQueryExecutor.split(kinopoiskIds, SAVE_CHUNK_SIZE)) {
+            template.query("select kinopoisk_id, max(movie_id) from movies where kinopoisk_id in (" +
+                    ChunkedIdQueryExecutor.getPlaceholders(chunk.size()) + ") group by kinopoisk_id", chunk.toArray(),
+                    (RowCallbackHandler) resultSet -> movieIds.put(resultSet.getLong(1), resultSet.getLong(2)));
+        }
+
+        return movieIds;
     }
 
     public List<Long> getUnprocessedMovies() {
@@ -139,7 +176,9 @@ public class MovieStorageHelper {
     }
 
     public int setMovieVote(Long userId, Long kinopoiskId, Integer vote) {
-        return template.update("replace into votes2 values (?,?,now(),?)", userId, kinopoiskId, vote);
+        int updated = template.update("replace into votes2 values (?,?,now(),?)", userId, kinopoiskId, vote);
+        voteListeners.forEach(listener -> listener.onVoteSet(userId, kinopoiskId, vote));
+        return updated;
     }
 
     public List<Movie> getMoviesToVote(Long userId) {
@@ -152,7 +191,7 @@ public class MovieStorageHelper {
     }
 
     public List<Movie> getMovies(String tableName) {
-        return getMoviesByKinopoiskId(template.query("select distinct kinopoisk_id from " + tableName, new SingleColumnRowMapper<>(Long.class)));
+        return loadMovies("m.kinopoisk_id in (select kinopoisk_id from " + tableName + ")");
     }
 
     public List<Movie> getMovies(List<Long> movieIds) {
@@ -168,18 +207,85 @@ public class MovieStorageHelper {
             return new ArrayList<>();
         }
 
-        return template.query("select m.*, group_concat(distinct a.name) as actors, group_concat(distinct g.genre) as genres, " +
-                "group_concat(distinct v.user_id, '-', v.vote) as user_votes " +
-                "from movies m " +
+        Function<Movie, Long> idOf = "movie_id".equals(columnName) ? Movie::getId : Movie::getKinopoiskId;
+        return chunkedQueries.query(ids, chunk -> loadMovies("m." + columnName + " in (" +
+                ChunkedIdQueryExecutor.getPlaceholders(chunk.size()) + ")", chunk.toArray()), idOf);
+    }
+
+    /**
+     * Loads movies matching the condition on `movies m`. Movies, actors, genres and votes are read by separate
+     * forward-only queries and stitched into {@link Movie}s by movie_id while the rows are streamed,
+     * so neither the product of the joined tables nor group_concat strings are built.
+     * As with the inner join, movies without actors, genres or votes are skipped; movies are ordered by movie_id
+     * @param args – parameters of the condition
+     */
+    private List<Movie> loadMovies(String condition, Object... args) {
+        Map<Long, Movie> movies = new LinkedHashMap<>();
+        stream("select m.movie_id, m.kinopoisk_id, m.title, m.year, m.director from movies m " +
+                "where " + condition + " order by m.movie_id", args, resultSet -> {
+            Movie movie = new Movie();
+            movie.setId(resultSet.getLong("movie_id"));
+            movie.setKinopoiskId(resultSet.getLong("kinopoisk_id"));
+            movie.setTitle(resultSet.getString("title"));
+            movie.setYear(resultSet.getInt("year"));
+            movie.setDirector(resultSet.getString("director"));
+            movie.setActors(new ArrayList<>());
+            movie.setGenres(new ArrayList<>());
+            movie.setVotes(new ArrayList<>());
+            movies.put(movie.getId(), movie);
+        });
+        if (movies.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        stream("select distinct m.movie_id, a.name from movies m " +
                 "join movie_actors ma on m.movie_id = ma.movie_id join actors a on ma.actor_id = a.actor_id " +
+                "where " + condition, args, resultSet -> {
+            Movie movie = movies.get(resultSet.getLong(1));
+            if (movie != null) {
+                movie.getActors().add(resultSet.getString(2));
+            }
+        });
+        stream("select distinct m.movie_id, g.genre from movies m " +
                 "join movie_genres mg on m.movie_id = mg.movie_id join genres g on mg.genre_id = g.genre_id " +
+                "where " + condition, args, resultSet -> {
+            Movie movie = movies.get(resultSet.getLong(1));
+            if (movie != null) {
+                movie.getGenres().add(resultSet.getString(2));
+            }
+        });
+        stream("select distinct m.movie_id, v.user_id, v.vote from movies m " +
                 "join votes2 v on m.kinopoisk_id = v.kinopoisk_id " +
-                "where m." + columnName + " in (" + StringUtils.join(ids, ",") + ") " +
-                "group by m.movie_id", MOVIE_EXTRACTOR);
+                "where " + condition, args, resultSet -> {
+            Movie movie = movies.get(resultSet.getLong(1));
+            if (movie != null) {
+                movie.getVotes().add(new Movie.UserVote(resultSet.getLong(2), resultSet.getInt(3)));
+            }
+        });
+
+        return movies.values().stream()
+                .filter(movie -> !movie.getActors().isEmpty() && !movie.getGenres().isEmpty() && !movie.getVotes().isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private void stream(String sql, Object[] args, RowCallbackHandler handler) {
+        template.query(con -> {
+            PreparedStatement statement = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            return statement;
+        }, handler);
     }
 
     public void deleteMark(Long userId, Long kinopoiskId) {
         template.update("delete from votes2 where user_id = ? and kinopoisk_id = ?", userId, kinopoiskId);
+        voteListeners.forEach(listener -> listener.onVoteDeleted(userId, kinopoiskId));
+    }
+
+    private static List<String> nullToEmpty(List<String> values) {
+        return values == null ? Collections.emptyList() : values;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,83 @@
+package ru.ovsyannikov;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Cache of ids of a name dictionary table (actors, genres, keywords); the names are unique in the table.
+ * Unknown names are inserted by one multi-row insert ignoring duplicates and looked up by one select per chunk
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/7/15
+ */
+public class NameDictionary {
+
+    // names per multi-row insert and lookup
+    private static final int CHUNK_SIZE = 500;
+
+    private final String table;
+    private final String idColumn;
+    private final String nameColumn;
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+
+    public NameDictionary(String table, String idColumn, String nameColumn) {
+        this.table = table;
+        this.idColumn = idColumn;
+        this.nameColumn = nameColumn;
+    }
+
+    /**
+     * Finds ids of the names, inserting the missing ones; must be called in a transaction
+     * @param names – lists of names, null lists are skipped
+     * @param created – names not cached yet and their ids, to {@link #publish} after the commit
+     * @return name -> id for all the names
+     */
+    public Map<String, Long> resolve(JdbcTemplate template, Stream<List<String>> names, Map<String, Long> created) {
+        Map<String, Long> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        names.flatMap(values -> values == null ? Stream.<String>empty() : values.stream()).distinct().forEach(name -> {
+            Long id = ids.get(name);
+            if (id != null) {
+                result.put(name, id);
+            } else {
+                missing.add(name);
+            }
+        });
+
+        for (List<String> chunk : ChunkedIdQueryExecutor.split(missing, CHUNK_SIZE)) {
+            template.update("insert into " + table + "(" + nameColumn + ") values " +
+                    StringUtils.repeat("(?)", ", ", chunk.size()) +
+                    " on duplicate key update " + idColumn + " = " + idColumn, chunk.toArray());
+            template.query("select " + idColumn + ", " + nameColumn + " from " + table + " where " + nameColumn + " in (" +
+                    ChunkedIdQueryExecutor.getPlaceholders(chunk.size()) + ")", chunk.toArray(),
+                    (RowCallbackHandler) resultSet -> result.put(resultSet.getString(2), resultSet.getLong(1)));
+        }
+        for (String name : missing) {
+            // the collation may match a name stored with another case or trailing spaces
+            Long id = result.computeIfAbsent(name, n -> template.queryForObject("select " + idColumn + " from " + table +
+                    " where " + nameColumn + " = ?", Long.class, n));
+            created.put(name, id);
+        }
+
+        return result;
+    }
+
+    public void publish(Map<String, Long> created) {
+        ids.putAll(created);
+    }
+
+    /**
+     * @return number of cached names
+     */
+    public int size() {
+        return ids.size();
+    }
+}
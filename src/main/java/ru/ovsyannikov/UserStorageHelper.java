@@ -1,9 +1,9 @@
 package ru.ovsyannikov;
 
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 import ru.ovsyannikov.parsing.model.User;
 
@@ -17,12 +17,20 @@ import java.util.List;
 @Service
 public class UserStorageHelper {
 
+    private static final RowMapper<User> USER_MAPPER = new BeanPropertyRowMapper<>(User.class);
+
     @Autowired
     public JdbcTemplate template;
 
+    @Autowired
+    public ChunkedIdQueryExecutor chunkedQueries;
+
+    /**
+     * @return users in the order of the ids
+     */
     public List<User> getUsers(List<Long> userIds) {
-        return template.query("select * from users where user_id in (" + StringUtils.join(userIds, ", ") + ")",
-                new BeanPropertyRowMapper<>(User.class));
+        return chunkedQueries.query(userIds, chunk -> template.query("select * from users where user_id in (" +
+                ChunkedIdQueryExecutor.getPlaceholders(chunk.size()) + ")", chunk.toArray(), USER_MAPPER), User::getUserId);
     }
 
     public Long getUserId(String username) {
@@ -0,0 +1,447 @@
+package ru.ovsyannikov.clustering;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ovsyannikov.clustering.model.DataSet;
+import ru.ovsyannikov.clustering.model.DistanceInfo;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Job calculating distances between all pairs of values of all attributes
+ * (see {@link CategoricalDistanceProcessor#calculateAttributesDistances}).
+ * Distinct values of an attribute are processed by rows: row i – distances of the i-th value to values 0..i.
+ * The job reports progress of every attribute to a {@link ProgressListener}, stops between rows after {@link #cancel()}
+ * and, if a checkpoint file is set, appends finished rows to it, so a restarted job skips them.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/31/15
+ */
+public class CategoricalDistanceJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(CategoricalDistanceJob.class);
+
+    private final DataSet dataSet;
+    private final ProgressListener listener;
+    private File checkpointFile;
+    private long checkpointIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+    private long progressIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+    private volatile boolean cancelled;
+
+    /**
+     * @param listener – receives progress from worker threads, null if progress is not needed
+     */
+    public CategoricalDistanceJob(DataSet dataSet, ProgressListener listener) {
+        this.dataSet = dataSet;
+        this.listener = listener;
+    }
+
+    /**
+     * @param checkpointFile – file for finished rows; rows already in the file are not recalculated
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * @param checkpointIntervalMillis – how often finished rows are flushed to the checkpoint file
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * @param progressIntervalMillis – how often the listener is called while an attribute is calculated
+     */
+    public void setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    /**
+     * Requests the job to stop: rows being calculated are finished and checkpointed, {@link #run} throws
+     * {@link CancellationException}
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return distances by attribute name (`actors`, `genres`, ...)
+     * @throws CancellationException if the job was cancelled
+     * @throws UncheckedIOException if the checkpoint file can't be read or written
+     */
+    public Multimap<String, DistanceInfo<String>> run() {
+        Multimap<String, DistanceInfo<String>> result = Multimaps.synchronizedSetMultimap(HashMultimap.create());
+        CoOccurrenceEngine engine = new CoOccurrenceEngine(dataSet);
+        List<List<List<String>>> attributes = Arrays.asList(dataSet.getActors(), dataSet.getGenres(),
+                dataSet.getDirectors(), dataSet.getKeywords());
+        List<AttributeValues> values = new ArrayList<>();
+        for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT; attribute++) {
+            values.add(new AttributeValues(engine, attribute, attributes.get(attribute)));
+        }
+
+        try (Checkpoint checkpoint = checkpointFile == null ? null :
+                new Checkpoint(checkpointFile, checkpointIntervalMillis, engine.getRowsCount(), values)) {
+            for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT && !cancelled; attribute++) {
+                calculateAttributeDistances(engine, attribute, values.get(attribute), checkpoint, result);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (cancelled) {
+            throw new CancellationException("distances calculation cancelled");
+        }
+        logger.info("distances calculation finished");
+        return result;
+    }
+
+    /**
+     * Расстояния между значениями одного атрибута относительно трёх остальных (actors: genres, directors, keywords и т.д.)
+     */
+    private void calculateAttributeDistances(CoOccurrenceEngine engine, int attribute, AttributeValues values,
+                                             Checkpoint checkpoint, Multimap<String, DistanceInfo<String>> result) {
+        String type = CoOccurrenceEngine.ATTRIBUTE_NAMES[attribute];
+        int count = values.lists.size();
+        Map<Integer, double[]> finishedRows = checkpoint == null ? new HashMap<>() : checkpoint.getRows(attribute);
+        AtomicLong pairsDone = new AtomicLong();
+        finishedRows.forEach((row, distances) -> {
+            values.putRow(type, row, distances, result);
+            pairsDone.addAndGet(row + 1);
+        });
+
+        ProgressReporter reporter = new ProgressReporter(type, (long) count * (count + 1) / 2, pairsDone.get());
+        if (finishedRows.size() < count) {
+            CoOccurrenceEngine.ConditionalProbabilities[][] probabilities =
+                    new CoOccurrenceEngine.ConditionalProbabilities[FeatureDictionary.ATTRIBUTES_COUNT - 1][];
+            for (int k = 0; k < probabilities.length && !cancelled; k++) {
+                int other = (attribute + k + 1) % FeatureDictionary.ATTRIBUTES_COUNT;
+                probabilities[k] = IntStream.range(0, engine.getSetsCount(attribute)).parallel()
+                        .mapToObj(set -> engine.getConditionalProbabilities(attribute, other, set))
+                        .toArray(CoOccurrenceEngine.ConditionalProbabilities[]::new);
+            }
+
+            IntStream.range(0, count).parallel().forEach(row -> {
+                if (cancelled || finishedRows.containsKey(row)) {
+                    return;
+                }
+
+                double[] distances = values.getRow(engine, attribute, row, probabilities);
+                if (checkpoint != null) {
+                    checkpoint.append(attribute, row, distances);
+                }
+                values.putRow(type, row, distances, result);
+                reporter.report(pairsDone.addAndGet(row + 1), false);
+            });
+        }
+
+        reporter.report(pairsDone.get(), true);
+    }
+
+    /**
+     * Listener of the job progress
+     */
+    public interface ProgressListener {
+
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * Progress of the calculation of one attribute
+     */
+    public static class Progress {
+
+        private final String type;
+        private final long pairsDone;
+        private final long pairsCount;
+        private final double pairsPerSecond;
+        private final long etaMillis;
+
+        public Progress(String type, long pairsDone, long pairsCount, double pairsPerSecond, long etaMillis) {
+            this.type = type;
+            this.pairsDone = pairsDone;
+            this.pairsCount = pairsCount;
+            this.pairsPerSecond = pairsPerSecond;
+            this.etaMillis = etaMillis;
+        }
+
+        /**
+         * @return attribute name (`actors`, `genres`, ...)
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return pairs calculated, including ones restored from the checkpoint
+         */
+        public long getPairsDone() {
+            return pairsDone;
+        }
+
+        public long getPairsCount() {
+            return pairsCount;
+        }
+
+        /**
+         * @return speed of this run (pairs restored from the checkpoint are not counted)
+         */
+        public double getPairsPerSecond() {
+            return pairsPerSecond;
+        }
+
+        /**
+         * @return estimated time to finish the attribute, -1 if unknown
+         */
+        public long getEtaMillis() {
+            return etaMillis;
+        }
+
+        public boolean isFinished() {
+            return pairsDone == pairsCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d/%d pairs, %.1f pairs/sec, ETA %s", type, pairsDone, pairsCount, pairsPerSecond,
+                    etaMillis < 0 ? "unknown" : TimeUnit.MILLISECONDS.toSeconds(etaMillis) + "s");
+        }
+    }
+
+    private class ProgressReporter {
+
+        private final String type;
+        private final long pairsCount;
+        private final long initialPairs;
+        private final long start = System.nanoTime();
+        private final AtomicLong lastReport = new AtomicLong(start);
+
+        ProgressReporter(String type, long pairsCount, long initialPairs) {
+            this.type = type;
+            this.pairsCount = pairsCount;
+            this.initialPairs = initialPairs;
+        }
+
+        void report(long pairsDone, boolean force) {
+            if (listener == null) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long last = lastReport.get();
+            if (!force && (now - last < TimeUnit.MILLISECONDS.toNanos(progressIntervalMillis) || !lastReport.compareAndSet(last, now))) {
+                return;
+            }
+
+            double seconds = (now - start) / 1e9;
+            double pairsPerSecond = seconds > 0 ? (pairsDone - initialPairs) / seconds : 0;
+            long etaMillis = pairsPerSecond > 0 ? (long) ((pairsCount - pairsDone) / pairsPerSecond * 1000) : -1;
+            listener.onProgress(new Progress(type, pairsDone, pairsCount, pairsPerSecond, etaMillis));
+        }
+    }
+
+    /**
+     * Distinct lists of an attribute in order of first occurrence in the data set
+     */
+    private static class AttributeValues {
+
+        private final List<List<String>> lists;
+        private final int[] firstRows;
+        private final int[] lastRows;
+        private final int[] sets;
+
+        AttributeValues(CoOccurrenceEngine engine, int attribute, List<List<String>> values) {
+            // список -> {первая строка, последняя строка}
+            Map<List<String>, int[]> rows = new LinkedHashMap<>();
+            for (int row = 0; row < values.size(); row++) {
+                final int fRow = row;
+                rows.computeIfAbsent(values.get(row), k -> new int[]{fRow, fRow})[1] = row;
+            }
+            lists = new ArrayList<>(rows.keySet());
+            firstRows = lists.stream().mapToInt(list -> rows.get(list)[0]).toArray();
+            lastRows = lists.stream().mapToInt(list -> rows.get(list)[1]).toArray();
+            sets = Arrays.stream(firstRows).map(row -> engine.getRowSet(attribute, row)).toArray();
+        }
+
+        /**
+         * @return distances of the i-th list to lists 0..i, NaN for pairs absent from the result
+         */
+        double[] getRow(CoOccurrenceEngine engine, int attribute, int i,
+                        CoOccurrenceEngine.ConditionalProbabilities[][] probabilities) {
+            double[] distances = new double[i + 1];
+            for (int j = 0; j <= i; j++) {
+                if (!isPresent(i, j) && !isPresent(j, i)) {
+                    distances[j] = Double.NaN;
+                    continue;
+                }
+
+                double distance = 0;
+                if (!engine.isEqual(attribute, sets[i], sets[j])) {
+                    for (CoOccurrenceEngine.ConditionalProbabilities[] otherProbabilities : probabilities) {
+                        distance += CoOccurrenceEngine.ConditionalProbabilities.getMaxSum(
+                                otherProbabilities[sets[i]], otherProbabilities[sets[j]]) - 1;
+                    }
+                    distance /= probabilities.length;
+                }
+                distances[j] = distance;
+            }
+
+            return distances;
+        }
+
+        void putRow(String type, int i, double[] distances, Multimap<String, DistanceInfo<String>> result) {
+            for (int j = 0; j <= i; j++) {
+                if (isPresent(i, j)) {
+                    result.put(type, new DistanceInfo<>(lists.get(i), lists.get(j), type, distances[j]));
+                }
+                if (i != j && isPresent(j, i)) {
+                    result.put(type, new DistanceInfo<>(lists.get(j), lists.get(i), type, distances[j]));
+                }
+            }
+        }
+
+        /**
+         * Пара (x, y) попадает в результат, если x встречается в данных позже y – как при переборе строк i > j
+         */
+        private boolean isPresent(int x, int y) {
+            return lastRows[x] > firstRows[y];
+        }
+    }
+
+    /**
+     * Append-only file of finished rows: header (data set fingerprint), then records
+     * `int attribute, int row, row + 1 doubles`. A record cut by a crash is dropped on opening.
+     */
+    private static class Checkpoint implements AutoCloseable {
+
+        private static final int MAGIC = 0x43484B50; // "CHKP"
+        // magic, rows count, for every attribute: number of lists and their hash
+        private static final int HEADER_SIZE = 8 + 8 * FeatureDictionary.ATTRIBUTES_COUNT;
+
+        private final Map<Integer, Map<Integer, double[]>> rows = new HashMap<>();
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final long intervalNanos;
+        private long lastFlush = System.nanoTime();
+
+        Checkpoint(File checkpointFile, long intervalMillis, int rowsCount, List<AttributeValues> values) throws IOException {
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            long length = checkpointFile.length() < HEADER_SIZE ? -1 : read(checkpointFile, rowsCount, values);
+            if (length >= 0) {
+                // the tail cut by a crash is dropped, new records follow the last complete one
+                try (RandomAccessFile truncated = new RandomAccessFile(checkpointFile, "rw")) {
+                    truncated.setLength(length);
+                }
+                logger.info("{} rows restored from checkpoint {}", rows.values().stream().mapToInt(Map::size).sum(), checkpointFile);
+            }
+
+            file = new FileOutputStream(checkpointFile, length >= 0);
+            out = new DataOutputStream(new BufferedOutputStream(file));
+            if (length < 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(rowsCount);
+                for (AttributeValues attributeValues : values) {
+                    out.writeInt(attributeValues.lists.size());
+                    out.writeInt(attributeValues.lists.hashCode());
+                }
+                out.flush();
+            }
+        }
+
+        /**
+         * @return length of the complete part of the file
+         */
+        private long read(File checkpointFile, int rowsCount, List<AttributeValues> values) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+                boolean matches = in.readInt() == MAGIC && in.readInt() == rowsCount;
+                for (AttributeValues attributeValues : values) {
+                    matches &= in.readInt() == attributeValues.lists.size() & in.readInt() == attributeValues.lists.hashCode();
+                }
+                if (!matches) {
+                    throw new IOException(checkpointFile + " is not a checkpoint of the data set");
+                }
+
+                long length = HEADER_SIZE;
+                while (true) {
+                    double[] distances;
+                    int attribute;
+                    int row;
+                    try {
+                        attribute = in.readInt();
+                        row = in.readInt();
+                        if (attribute < 0 || attribute >= values.size() || row < 0 || row >= values.get(attribute).lists.size()) {
+                            throw new IOException("corrupted record at " + length + " of " + checkpointFile);
+                        }
+                        distances = new double[row + 1];
+                        for (int j = 0; j <= row; j++) {
+                            distances[j] = in.readDouble();
+                        }
+                    } catch (EOFException e) {
+                        return length;
+                    }
+
+                    rows.computeIfAbsent(attribute, k -> new HashMap<>()).put(row, distances);
+                    length += 8 + 8L * distances.length;
+                }
+            }
+        }
+
+        Map<Integer, double[]> getRows(int attribute) {
+            return rows.getOrDefault(attribute, new HashMap<>());
+        }
+
+        synchronized void append(int attribute, int row, double[] distances) {
+            try {
+                out.writeInt(attribute);
+                out.writeInt(row);
+                for (double distance : distances) {
+                    out.writeDouble(distance);
+                }
+
+                long now = System.nanoTime();
+                if (now - lastFlush >= intervalNanos) {
+                    out.flush();
+                    file.getFD().sync();
+                    lastFlush = now;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.flush();
+            file.getFD().sync();
+            out.close();
+        }
+    }
+}
@@ -1,22 +1,16 @@
 package ru.ovsyannikov.clustering;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.ovsyannikov.clustering.model.DataSet;
 import ru.ovsyannikov.clustering.model.DistanceInfo;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+import ru.ovsyannikov.clustering.similarity.SetSimilarity;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class for calculating distances between categorical attributes of movies
@@ -30,144 +24,19 @@ public class CategoricalDistanceProcessor {
     private static final Logger logger = LoggerFactory.getLogger(CategoricalDistanceProcessor.class);
 
     /**
-     * Считает расстояние между всеми парами значений всех атрибутов
+     * Считает расстояние между всеми парами значений всех атрибутов.
+     * Условные вероятности берутся из таблиц совместной встречаемости {@link CoOccurrenceEngine} (один проход по данным),
+     * для каждого значения атрибута они считаются один раз, а не для каждой пары значений.
+     * Результат совпадает с определением через {@link #findMax} и {@link #p}.
+     * Прогресс пишется в лог; для отмены и возобновления с контрольной точки – {@link CategoricalDistanceJob}.
      */
     // TODO: refactor – provide movies attributes as a map
     public Multimap<String, DistanceInfo<String>> calculateAttributesDistances(DataSet dataSet) {
-        Multimap<String, DistanceInfo<String>> result = Multimaps.synchronizedSetMultimap(HashMultimap.create());
-        ExecutorService executorService = Executors.newFixedThreadPool(32);
-        List<Future> futures = new ArrayList<>();
-        // actors
-        AtomicInteger actorsCount = new AtomicInteger(0);
-        for (int i = 0; i < dataSet.getActors().size(); i++) {
-            final int fi = i;
-            futures.add(executorService.submit(() -> {
-                for (int j = 0; j < fi; j++) {
-                    List<String> actors0 = dataSet.getActors().get(fi);
-                    List<String> actors1 = dataSet.getActors().get(j);
-                    double sum = 0;
-                    if (ComparisonUtils.compare(actors0, actors1)) {
-                        DistanceInfo<String> info = new DistanceInfo<>(actors0, actors1, "actors", 0);
-                        result.put("actors", info);
-                        continue;
-                    }
-
-                    // actors-genres
-                    sum += findMax(dataSet.getActors(), dataSet.getGenres(), actors0, actors1);
-                    // actors-directors
-                    sum += findMax(dataSet.getActors(), dataSet.getDirectors(), actors0, actors1);
-                    // actors-keywords
-                    sum += findMax(dataSet.getActors(), dataSet.getKeywords(), actors0, actors1);
-                    DistanceInfo<String> info = new DistanceInfo<>(actors0, actors1, "actors", sum / 3);
-                    result.put("actors", info);
-                    System.out.println("actors: " + actorsCount.incrementAndGet());
-                }
-            }));
-        }
-        // genres
-        AtomicInteger genresCount = new AtomicInteger(0);
-        for (int i = 0; i < dataSet.getGenres().size(); i++) {
-            final int fi = i;
-            futures.add(executorService.submit(() -> {
-                try {
-                    for (int j = 0; j < fi; j++) {
-                        List<String> genres0 = dataSet.getGenres().get(fi);
-                        List<String> genres1 = dataSet.getGenres().get(j);
-                        double sum = 0;
-                        if (ComparisonUtils.compare(genres0, genres1)) {
-                            DistanceInfo<String> info = new DistanceInfo<>(genres0, genres1, "genres", 0);
-                            result.put("genres", info);
-                            continue;
-                        }
-
-                        // genres-directors
-                        sum += findMax(dataSet.getGenres(), dataSet.getDirectors(), genres0, genres1);
-                        // genres-keywords
-                        sum += findMax(dataSet.getGenres(), dataSet.getKeywords(), genres0, genres1);
-                        // genres-actors
-                        sum += findMax(dataSet.getGenres(), dataSet.getActors(), genres0, genres1);
-                        DistanceInfo<String> info = new DistanceInfo<>(genres0, genres1, "genres", sum / 3);
-                        result.put("genres", info);
-                        System.out.println("genres: " + genresCount.incrementAndGet());
-                    }
-                } catch (Throwable e) {
-                    logger.error("ERROR", e);
-                }
-            }));
-        }
-        // directors
-        AtomicInteger directorsCount = new AtomicInteger(0);
-        for (int i = 0; i < dataSet.getDirectors().size(); i++) {
-            final int fi = i;
-            futures.add(executorService.submit(() -> {
-                try {
-                    for (int j = 0; j < fi; j++) {
-                        List<String> directors0 = dataSet.getDirectors().get(fi);
-                        List<String> directors1 = dataSet.getDirectors().get(j);
-                        double sum = 0;
-                        if (ComparisonUtils.compare(directors0, directors1)) {
-                            DistanceInfo<String> info = new DistanceInfo<>(directors0, directors1, "directors", 0);
-                            result.put("directors", info);
-                            continue;
-                        }
-
-                        // directors-keywords
-                        sum += findMax(dataSet.getDirectors(), dataSet.getKeywords(), directors0, directors1);
-                        // directors-actors
-                        sum += findMax(dataSet.getDirectors(), dataSet.getActors(), directors0, directors1);
-                        // directors-genres
-                        sum += findMax(dataSet.getDirectors(), dataSet.getGenres(), directors0, directors1);
-                        DistanceInfo<String> info = new DistanceInfo<>(directors0, directors1, "directors", sum / 3);
-                        result.put("directors", info);
-                        System.out.println("directors: " + directorsCount.incrementAndGet());
-                    }
-                } catch (Throwable e) {
-                    logger.error("ERROR", e);
-                }
-            }));
-        }
-        // keywords
-        AtomicInteger keywordsCount = new AtomicInteger(0);
-        for (int i = 0; i < dataSet.getKeywords().size(); i++) {
-            final int fi = i;
-            futures.add(executorService.submit(() -> {
-                for (int j = 0; j < fi; j++) {
-                    List<String> keywords0 = dataSet.getKeywords().get(fi);
-                    List<String> keywords1 = dataSet.getKeywords().get(j);
-                    double sum = 0;
-                    if (ComparisonUtils.compare(keywords0, keywords1)) {
-                        DistanceInfo<String> info = new DistanceInfo<>(keywords0, keywords1, "keywords", 0);
-                        result.put("keywords", info);
-                        continue;
-                    }
-
-                    // keywords-actors
-                    sum += findMax(dataSet.getKeywords(), dataSet.getActors(), keywords0, keywords1);
-                    // keywords-genres
-                    sum += findMax(dataSet.getKeywords(), dataSet.getGenres(), keywords0, keywords1);
-                    // keywords-directors
-                    sum += findMax(dataSet.getKeywords(), dataSet.getDirectors(), keywords0, keywords1);
-                    DistanceInfo<String> info = new DistanceInfo<>(keywords0, keywords1, "keywords", sum / 3);
-                    result.put("keywords", info);
-                    System.out.println("keywords: " + keywordsCount.incrementAndGet());
-                }
-            }));
-        }
-
-        for (Future future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                logger.error("ERROR", e);
-            }
-        }
-
-        executorService.shutdownNow();
-        logger.info("distances calculation finished");
-        return result;
+        return new CategoricalDistanceJob(dataSet, progress -> logger.info(progress.toString())).run();
     }
 
     /**
+     * Расстояние по определению: пересканирует набор данных для каждого значения, используется для проверки.
      * Например:
      *
      * @param attributes1 – существующие списки жанров (просто выгружены из БД)
@@ -204,6 +73,40 @@ public class CategoricalDistanceProcessor {
         return distance - 1;
     }
 
+    /**
+     * {@link #findMax(List, List, List, List)}, где значения атрибутов сравниваются через similarity1 и similarity2
+     * (например, {@link ru.ovsyannikov.clustering.similarity.MinHashSetSimilarity} для ключевых слов).
+     * Атрибуты кодируются в id один раз на вызов
+     */
+    public double findMax(List<List<String>> attributes1, List<List<String>> attributes2, List<String> xValue, List<String> yValue,
+                          SetSimilarity similarity1, SetSimilarity similarity2) {
+        EncodedAttributes encoded = new EncodedAttributes(attributes1, attributes2);
+        int[] x = encoded.encode(0, xValue);
+        int[] y = encoded.encode(0, yValue);
+
+        double distance = 0;
+        Set<List<String>> mainValueSet = new HashSet<>();
+        Set<List<String>> supportValueSet = new HashSet<>();
+        for (int i = 0; i < attributes2.size(); i++) {
+            List<String> attribute2Value = attributes2.get(i);
+            double p1 = encoded.p(x, encoded.sets2[i], similarity1, similarity2);
+            double p2 = encoded.p(y, encoded.sets2[i], similarity1, similarity2);
+            if (p1 >= p2) {
+                if (!mainValueSet.contains(attribute2Value)) {
+                    mainValueSet.add(attribute2Value);
+                    distance += p1;
+                }
+            } else {
+                if (!supportValueSet.contains(attribute2Value)) {
+                    supportValueSet.add(attribute2Value);
+                    distance += p2;
+                }
+            }
+        }
+
+        return distance - 1;
+    }
+
     /**
      * Метод считает вероятность, что значение value1 аттрибута attribute1 встретится вместе
      * со значением value2 аттрибута attribute2
@@ -231,4 +134,63 @@ public class CategoricalDistanceProcessor {
 
         return coOccurrence / value2Occurrence;
     }
+
+    /**
+     * {@link #p(List, List, List, List)}, где значения атрибутов сравниваются через similarity1 и similarity2
+     */
+    public double p(List<List<String>> attributes1, List<List<String>> attributes2, List<String> value1, List<String> value2,
+                    SetSimilarity similarity1, SetSimilarity similarity2) {
+        EncodedAttributes encoded = new EncodedAttributes(attributes1, attributes2);
+        return encoded.p(encoded.encode(0, value1), encoded.encode(1, value2), similarity1, similarity2);
+    }
+
+    /**
+     * Two attributes encoded into sorted value ids; equal lists share one array, so sketches of
+     * {@link SetSimilarity} implementations are built once per distinct list
+     */
+    private static class EncodedAttributes {
+
+        private final FeatureDictionary dictionary = new FeatureDictionary();
+        private final int[][] sets1;
+        private final int[][] sets2;
+
+        EncodedAttributes(List<List<String>> attributes1, List<List<String>> attributes2) {
+            if (attributes1.size() != attributes2.size()) {
+                throw new IllegalArgumentException("unequal lengths of attributes lists!");
+            }
+
+            sets1 = new int[attributes1.size()][];
+            sets2 = new int[attributes2.size()][];
+            for (int i = 0; i < sets1.length; i++) {
+                sets1[i] = encode(0, attributes1.get(i));
+                sets2[i] = encode(1, attributes2.get(i));
+            }
+        }
+
+        /**
+         * @param attribute – 0 for values of attributes1, 1 for values of attributes2
+         */
+        int[] encode(int attribute, List<String> values) {
+            int setId = dictionary.internSet(attribute, dictionary.encode(attribute, values));
+            return setId < 0 ? null : dictionary.getSet(attribute, setId);
+        }
+
+        double p(int[] value1, int[] value2, SetSimilarity similarity1, SetSimilarity similarity2) {
+            double coOccurrence = 0;
+            double value2Occurrence = 0;
+            for (int i = 0; i < sets1.length; i++) {
+                double similarity = similarity1.getSimilarity(sets1[i], value1);
+                value2Occurrence += similarity;
+                if (similarity > 0) {
+                    coOccurrence += similarity2.getSimilarity(sets2[i], value2);
+                }
+            }
+
+            if (value2Occurrence == 0.0) {
+                return 0;
+            }
+
+            return coOccurrence / value2Occurrence;
+        }
+    }
 }
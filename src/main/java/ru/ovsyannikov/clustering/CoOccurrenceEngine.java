@@ -0,0 +1,436 @@
+package ru.ovsyannikov.clustering;
+
+import ru.ovsyannikov.clustering.model.DataSet;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Occurrence and co-occurrence count tables of movie attributes, built with one pass over a {@link DataSet}.
+ * Every list of values of an attribute is encoded by {@link FeatureDictionary} into a set (sorted value ids),
+ * then for every attribute the number of movies with each set is counted (occurrence table) and for every pair
+ * of attributes – the number of movies with each pair of sets (co-occurrence table).
+ * Conditional probabilities of Ahmad-Dey distance ({@link CategoricalDistanceProcessor#p}) are derived from the tables
+ * and from inverted value -> sets indexes, the data set is not rescanned for every pair of values.
+ * Attributes are indexed by {@link FeatureDictionary#ACTORS}, {@link FeatureDictionary#GENRES} etc.
+ * Immutable after construction, safe to read from several threads.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/29/15
+ */
+public class CoOccurrenceEngine {
+
+    public static final String[] ATTRIBUTE_NAMES = {"actors", "genres", "directors", "keywords"};
+    // set of a null list; sets of FeatureDictionary are shifted by one
+    public static final int NULL_SET = 0;
+
+    private static final int ATTRIBUTES_COUNT = FeatureDictionary.ATTRIBUTES_COUNT;
+
+    private final int rowsCount;
+    // [attribute][row] -> set
+    private final int[][] rowSets = new int[ATTRIBUTES_COUNT][];
+    // [attribute][set] -> sorted value ids, null for NULL_SET
+    private final int[][][] sets = new int[ATTRIBUTES_COUNT][][];
+    // [attribute][set] -> number of movies with the set
+    private final int[][] occurrences = new int[ATTRIBUTES_COUNT][];
+    // [attribute][set] -> number of different lists with the set (the same values in another order are another list)
+    private final int[][] variants = new int[ATTRIBUTES_COUNT][];
+    private final int[] valuesCounts = new int[ATTRIBUTES_COUNT];
+    // [attribute1][attribute2] – co-occurrence table: for set s1 of attribute1 sets of attribute2
+    // and numbers of movies are in [coStarts[s1], coStarts[s1 + 1])
+    private final int[][][] coStarts = new int[ATTRIBUTES_COUNT][ATTRIBUTES_COUNT][];
+    private final int[][][] coSets = new int[ATTRIBUTES_COUNT][ATTRIBUTES_COUNT][];
+    private final int[][][] coCounts = new int[ATTRIBUTES_COUNT][ATTRIBUTES_COUNT][];
+    // [attribute] – inverted index: for value v sets containing it and multiplicities are in [postingStarts[v], postingStarts[v + 1])
+    private final int[][] postingStarts = new int[ATTRIBUTES_COUNT][];
+    private final int[][] postingSets = new int[ATTRIBUTES_COUNT][];
+    private final int[][] postingMultiplicities = new int[ATTRIBUTES_COUNT][];
+
+    public CoOccurrenceEngine(DataSet dataSet) {
+        List<List<List<String>>> attributes = Arrays.asList(dataSet.getActors(), dataSet.getGenres(),
+                dataSet.getDirectors(), dataSet.getKeywords());
+        rowsCount = dataSet.getActors().size();
+        for (List<List<String>> attribute : attributes) {
+            if (attribute.size() != rowsCount) {
+                throw new IllegalArgumentException("unequal lengths of attributes lists!");
+            }
+        }
+
+        FeatureDictionary dictionary = new FeatureDictionary();
+        List<Set<List<String>>> distinctLists = new ArrayList<>();
+        for (int attribute = 0; attribute < ATTRIBUTES_COUNT; attribute++) {
+            rowSets[attribute] = new int[rowsCount];
+            occurrences[attribute] = new int[16];
+            variants[attribute] = new int[16];
+            distinctLists.add(new HashSet<>());
+        }
+
+        for (int row = 0; row < rowsCount; row++) {
+            for (int attribute = 0; attribute < ATTRIBUTES_COUNT; attribute++) {
+                List<String> values = attributes.get(attribute).get(row);
+                int set = dictionary.internSet(attribute, dictionary.encode(attribute, values)) + 1;
+                rowSets[attribute][row] = set;
+                if (set == occurrences[attribute].length) {
+                    occurrences[attribute] = Arrays.copyOf(occurrences[attribute], set * 2);
+                    variants[attribute] = Arrays.copyOf(variants[attribute], set * 2);
+                }
+                occurrences[attribute][set]++;
+                if (distinctLists.get(attribute).add(values)) {
+                    variants[attribute][set]++;
+                }
+            }
+        }
+
+        for (int attribute = 0; attribute < ATTRIBUTES_COUNT; attribute++) {
+            int setsCount = dictionary.getSetsCount(attribute) + 1;
+            occurrences[attribute] = Arrays.copyOf(occurrences[attribute], setsCount);
+            variants[attribute] = Arrays.copyOf(variants[attribute], setsCount);
+            valuesCounts[attribute] = dictionary.getValuesCount(attribute);
+            sets[attribute] = new int[setsCount][];
+            for (int set = 1; set < setsCount; set++) {
+                sets[attribute][set] = dictionary.getSet(attribute, set - 1);
+            }
+            buildPostings(attribute);
+        }
+
+        for (int attribute1 = 0; attribute1 < ATTRIBUTES_COUNT; attribute1++) {
+            int[] rowsBySet = sortRowsBySet(attribute1);
+            for (int attribute2 = 0; attribute2 < ATTRIBUTES_COUNT; attribute2++) {
+                if (attribute1 != attribute2) {
+                    buildCoOccurrences(attribute1, attribute2, rowsBySet);
+                }
+            }
+        }
+    }
+
+    /**
+     * Conditional probabilities p(value of attribute1 = set | value of attribute2 = w) for every list w of attribute2
+     * (see {@link CategoricalDistanceProcessor#p}), only non-zero ones.
+     * Probability of a set of attribute2 is multiplied by the number of different lists with the set,
+     * so sums over sets are equal to sums over distinct lists as in {@link CategoricalDistanceProcessor#findMax}.
+     */
+    public ConditionalProbabilities getConditionalProbabilities(int attribute1, int attribute2, int set) {
+        // sets of attribute1 similar to the given one and their similarities (getListsSimilarity)
+        double[] similarities = new double[sets[attribute1].length];
+        int[] similarSets = new int[sets[attribute1].length];
+        int similarCount = getSimilarSets(attribute1, set, similarities, similarSets);
+
+        double occurrence = 0;
+        for (int i = 0; i < similarCount; i++) {
+            occurrence += occurrences[attribute1][similarSets[i]] * similarities[similarSets[i]];
+        }
+        if (occurrence == 0.0) {
+            return new ConditionalProbabilities(new int[0], new double[0]);
+        }
+
+        // sets of attribute2 co-occurring with the similar sets – number of movies
+        int[] coOccurrences = new int[sets[attribute2].length];
+        int[] coOccurredSets = new int[sets[attribute2].length];
+        int coOccurredCount = 0;
+        int[] starts = coStarts[attribute1][attribute2];
+        for (int i = 0; i < similarCount; i++) {
+            int set1 = similarSets[i];
+            for (int k = starts[set1]; k < starts[set1 + 1]; k++) {
+                int set2 = coSets[attribute1][attribute2][k];
+                if (coOccurrences[set2] == 0) {
+                    coOccurredSets[coOccurredCount++] = set2;
+                }
+                coOccurrences[set2] += coCounts[attribute1][attribute2][k];
+            }
+        }
+
+        // cosine similarity is a sum over values, so co-occurrences are spread over values of attribute2 first
+        double[] valueWeights = new double[valuesCounts[attribute2]];
+        int[] weightedValues = new int[valuesCounts[attribute2]];
+        int weightedCount = 0;
+        double[] sums = new double[sets[attribute2].length];
+        int[] resultSets = new int[sets[attribute2].length];
+        int resultCount = 0;
+        for (int i = 0; i < coOccurredCount; i++) {
+            int set2 = coOccurredSets[i];
+            int[] values = sets[attribute2][set2];
+            if (values == null) {
+                // null list is similar only to itself
+                resultSets[resultCount++] = NULL_SET;
+                sums[NULL_SET] = coOccurrences[NULL_SET];
+                continue;
+            }
+
+            double norm = Math.sqrt(values.length);
+            for (int v = 0; v < values.length; ) {
+                int value = values[v];
+                int multiplicity = 0;
+                while (v < values.length && values[v] == value) {
+                    v++;
+                    multiplicity++;
+                }
+                if (valueWeights[value] == 0.0) {
+                    weightedValues[weightedCount++] = value;
+                }
+                valueWeights[value] += coOccurrences[set2] * multiplicity / norm;
+            }
+        }
+
+        for (int i = 0; i < weightedCount; i++) {
+            int value = weightedValues[i];
+            for (int k = postingStarts[attribute2][value]; k < postingStarts[attribute2][value + 1]; k++) {
+                int set2 = postingSets[attribute2][k];
+                if (sums[set2] == 0.0) {
+                    resultSets[resultCount++] = set2;
+                }
+                sums[set2] += valueWeights[value] * postingMultiplicities[attribute2][k];
+            }
+        }
+
+        int[] resultSetsSorted = Arrays.copyOf(resultSets, resultCount);
+        Arrays.sort(resultSetsSorted);
+        double[] probabilities = new double[resultCount];
+        for (int i = 0; i < resultCount; i++) {
+            int set2 = resultSetsSorted[i];
+            double sum = set2 == NULL_SET ? sums[set2] : sums[set2] / Math.sqrt(sets[attribute2][set2].length);
+            probabilities[i] = sum / occurrence * variants[attribute2][set2];
+        }
+
+        return new ConditionalProbabilities(resultSetsSorted, probabilities);
+    }
+
+    /**
+     * @return the same as {@link ComparisonUtils#compare} for lists with the sets: both null
+     * or equal sizes and the number of distinct values of both lists equal to the size
+     */
+    public boolean isEqual(int attribute, int set1, int set2) {
+        int[] values1 = sets[attribute][set1];
+        int[] values2 = sets[attribute][set2];
+        if (values1 == null || values2 == null) {
+            return values1 == values2;
+        }
+
+        if (values1.length != values2.length) {
+            return false;
+        }
+
+        int distinct = 0;
+        int i = 0;
+        int j = 0;
+        while (i < values1.length || j < values2.length) {
+            int value = j == values2.length || (i < values1.length && values1[i] < values2[j]) ? values1[i] : values2[j];
+            while (i < values1.length && values1[i] == value) {
+                i++;
+            }
+            while (j < values2.length && values2[j] == value) {
+                j++;
+            }
+            distinct++;
+        }
+
+        return distinct == values1.length;
+    }
+
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    public int getRowSet(int attribute, int row) {
+        return rowSets[attribute][row];
+    }
+
+    public int getSetsCount(int attribute) {
+        return sets[attribute].length;
+    }
+
+    public int getOccurrence(int attribute, int set) {
+        return occurrences[attribute][set];
+    }
+
+    /**
+     * @return number of movies with set1 of attribute1 and set2 of attribute2
+     */
+    public int getCoOccurrence(int attribute1, int set1, int attribute2, int set2) {
+        int[] starts = coStarts[attribute1][attribute2];
+        int index = Arrays.binarySearch(coSets[attribute1][attribute2], starts[set1], starts[set1 + 1], set2);
+        return index < 0 ? 0 : coCounts[attribute1][attribute2][index];
+    }
+
+    /**
+     * Fills similarities[s] (cosine similarity of lists) for sets s of the attribute sharing a value with the given set
+     * @return number of such sets, the sets are in the first elements of similarSets
+     */
+    private int getSimilarSets(int attribute, int set, double[] similarities, int[] similarSets) {
+        int[] values = sets[attribute][set];
+        if (values == null) {
+            similarities[NULL_SET] = 1.0;
+            similarSets[0] = NULL_SET;
+            return 1;
+        }
+
+        int count = 0;
+        for (int v = 0; v < values.length; ) {
+            int value = values[v];
+            int multiplicity = 0;
+            while (v < values.length && values[v] == value) {
+                v++;
+                multiplicity++;
+            }
+            for (int k = postingStarts[attribute][value]; k < postingStarts[attribute][value + 1]; k++) {
+                int similarSet = postingSets[attribute][k];
+                if (similarities[similarSet] == 0.0) {
+                    similarSets[count++] = similarSet;
+                }
+                similarities[similarSet] += multiplicity * postingMultiplicities[attribute][k];
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            similarities[similarSets[i]] /= Math.sqrt(values.length * sets[attribute][similarSets[i]].length);
+        }
+
+        return count;
+    }
+
+    private void buildPostings(int attribute) {
+        int[] starts = new int[valuesCounts[attribute] + 1];
+        forEachDistinctValue(attribute, (set, value, multiplicity) -> starts[value + 1]++);
+        for (int value = 0; value < valuesCounts[attribute]; value++) {
+            starts[value + 1] += starts[value];
+        }
+
+        int[] positions = Arrays.copyOf(starts, starts.length - 1);
+        postingSets[attribute] = new int[starts[valuesCounts[attribute]]];
+        postingMultiplicities[attribute] = new int[starts[valuesCounts[attribute]]];
+        forEachDistinctValue(attribute, (set, value, multiplicity) -> {
+            postingSets[attribute][positions[value]] = set;
+            postingMultiplicities[attribute][positions[value]++] = multiplicity;
+        });
+        postingStarts[attribute] = starts;
+    }
+
+    private void forEachDistinctValue(int attribute, ValueConsumer consumer) {
+        for (int set = 1; set < sets[attribute].length; set++) {
+            int[] values = sets[attribute][set];
+            for (int v = 0; v < values.length; ) {
+                int value = values[v];
+                int multiplicity = 0;
+                while (v < values.length && values[v] == value) {
+                    v++;
+                    multiplicity++;
+                }
+                consumer.accept(set, value, multiplicity);
+            }
+        }
+    }
+
+    /**
+     * @return rows ordered by their sets of the attribute (counting sort)
+     */
+    private int[] sortRowsBySet(int attribute) {
+        int[] positions = new int[sets[attribute].length];
+        for (int set = 1; set < positions.length; set++) {
+            positions[set] = positions[set - 1] + occurrences[attribute][set - 1];
+        }
+
+        int[] rows = new int[rowsCount];
+        for (int row = 0; row < rowsCount; row++) {
+            rows[positions[rowSets[attribute][row]]++] = row;
+        }
+
+        return rows;
+    }
+
+    private void buildCoOccurrences(int attribute1, int attribute2, int[] rowsBySet) {
+        int setsCount = sets[attribute1].length;
+        int[] starts = new int[setsCount + 1];
+        int[] coOccurredSets = new int[rowsCount];
+        int[] counts = new int[rowsCount];
+        int size = 0;
+        int row = 0;
+        for (int set1 = 0; set1 < setsCount; set1++) {
+            int end = row + occurrences[attribute1][set1];
+            int[] sets2 = new int[end - row];
+            for (int i = row; i < end; i++) {
+                sets2[i - row] = rowSets[attribute2][rowsBySet[i]];
+            }
+            Arrays.sort(sets2);
+            for (int i = 0; i < sets2.length; i++) {
+                if (i == 0 || sets2[i] != sets2[i - 1]) {
+                    coOccurredSets[size++] = sets2[i];
+                }
+                counts[size - 1]++;
+            }
+            starts[set1 + 1] = size;
+            row = end;
+        }
+
+        coStarts[attribute1][attribute2] = starts;
+        coSets[attribute1][attribute2] = Arrays.copyOf(coOccurredSets, size);
+        coCounts[attribute1][attribute2] = Arrays.copyOf(counts, size);
+    }
+
+    private interface ValueConsumer {
+        void accept(int set, int value, int multiplicity);
+    }
+
+    /**
+     * Sparse vector of conditional probabilities: sorted sets of attribute2 and their (weighted) probabilities
+     */
+    public static class ConditionalProbabilities {
+
+        private final int[] sets;
+        private final double[] probabilities;
+        private final double sum;
+
+        ConditionalProbabilities(int[] sets, double[] probabilities) {
+            this.sets = sets;
+            this.probabilities = probabilities;
+            double total = 0;
+            for (double probability : probabilities) {
+                total += probability;
+            }
+            this.sum = total;
+        }
+
+        public int size() {
+            return sets.length;
+        }
+
+        public int getSet(int i) {
+            return sets[i];
+        }
+
+        public double getProbability(int i) {
+            return probabilities[i];
+        }
+
+        /**
+         * @return sum of the probabilities over all lists of attribute2
+         */
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * Sum of max(p(x, w), p(y, w)) over lists w of attribute2 – the same as the loop of
+         * {@link CategoricalDistanceProcessor#findMax}: max(a, b) = a + b - min(a, b), and min is non-zero only
+         * for the sets present in both vectors
+         */
+        public static double getMaxSum(ConditionalProbabilities x, ConditionalProbabilities y) {
+            double minSum = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.sets.length && j < y.sets.length) {
+                if (x.sets[i] < y.sets[j]) {
+                    i++;
+                } else if (x.sets[i] > y.sets[j]) {
+                    j++;
+                } else {
+                    minSum += Math.min(x.probabilities[i++], y.probabilities[j++]);
+                }
+            }
+
+            return x.sum + y.sum - minSum;
+        }
+    }
+}
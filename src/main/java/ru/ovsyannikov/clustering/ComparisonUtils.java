@@ -1,7 +1,10 @@
 package ru.ovsyannikov.clustering;
 
+import ru.ovsyannikov.clustering.model.AttributeSet;
+
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 
@@ -11,6 +14,9 @@ import java.util.concurrent.ConcurrentMap;
  */
 public class ComparisonUtils {
 
+    // longer lists are compared with a hash set instead of the quadratic pass
+    private static final int SMALL_LIST_SIZE = 32;
+
     /**
      * deep comparison of maps with given structure
      */
@@ -40,11 +46,53 @@ public class ComparisonUtils {
             return false;
         }
 
-        Set<T> overall = new HashSet<>();
-        overall.addAll(list1);
-        overall.addAll(list2);
+        if (list1.size() > SMALL_LIST_SIZE) {
+            Set<T> overall = new HashSet<>();
+            overall.addAll(list1);
+            overall.addAll(list2);
+
+            return overall.size() == list1.size() && overall.size() == list2.size();
+        }
+
+        // distinct values of the union without allocations: an element is counted if it is not met before it
+        int overall = 0;
+        for (int i = 0; i < list1.size(); i++) {
+            if (indexOf(list1, list1.get(i), i) < 0) {
+                overall++;
+            }
+        }
+        for (int i = 0; i < list2.size() && overall <= list1.size(); i++) {
+            if (indexOf(list1, list2.get(i), list1.size()) < 0 && indexOf(list2, list2.get(i), i) < 0) {
+                overall++;
+            }
+        }
 
-        return overall.size() == list1.size() && overall.size() == list2.size();
+        return overall == list1.size();
+    }
+
+    /**
+     * the same as {@link #compare(List, List)} for canonical sets: O(1) by hashes for sets without duplicates,
+     * one merge pass otherwise
+     */
+    public static boolean compare(AttributeSet set1, AttributeSet set2) {
+        if (set1 == null || set2 == null) {
+            return set1 == set2;
+        }
+
+        return set1.matches(set2);
+    }
+
+    /**
+     * @return index of the item among the first `limit` items of the list or -1
+     */
+    private static <T> int indexOf(List<T> list, T item, int limit) {
+        for (int i = 0; i < limit; i++) {
+            if (Objects.equals(list.get(i), item)) {
+                return i;
+            }
+        }
+
+        return -1;
     }
 
     /**
@@ -75,4 +123,55 @@ public class ComparisonUtils {
         int denominator = array1.size() * array2.size();
         return denominator == 0 ? 0 : similar / Math.sqrt(denominator);
     }
+
+    /**
+     * The same cosine similarity as {@link #getListsSimilarity(List, List)} for canonical sets, by one merge pass
+     */
+    public static double getListsSimilarity(AttributeSet set1, AttributeSet set2) {
+        if (set1 == null || set2 == null) {
+            return set1 == set2 ? 1.0 : 0.0;
+        }
+
+        return set1.getSimilarity(set2);
+    }
+
+    /**
+     * The same cosine similarity as {@link #getListsSimilarity(List, List)} for sorted arrays of value ids:
+     * equal values are found with one merge pass, runs of duplicates are multiplied as in the nested loop
+     */
+    public static double getSetsSimilarity(int[] array1, int[] array2) {
+        if (array1 == null || array2 == null) {
+            return array1 == array2 ? 1.0 : 0.0;
+        }
+
+        if (array1.length == 0 || array2.length == 0) {
+            return 0.0;
+        }
+
+        int similar = 0;
+        int i = 0;
+        int j = 0;
+        while (i < array1.length && j < array2.length) {
+            if (array1[i] < array2[j]) {
+                i++;
+            } else if (array1[i] > array2[j]) {
+                j++;
+            } else {
+                int value = array1[i];
+                int run1 = 0;
+                while (i < array1.length && array1[i] == value) {
+                    i++;
+                    run1++;
+                }
+                int run2 = 0;
+                while (j < array2.length && array2[j] == value) {
+                    j++;
+                    run2++;
+                }
+                similar += run1 * run2;
+            }
+        }
+
+        return similar / Math.sqrt(array1.length * array2.length);
+    }
 }
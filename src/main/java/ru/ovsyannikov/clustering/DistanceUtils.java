@@ -1,6 +1,8 @@
 package ru.ovsyannikov.clustering;
 
 import ru.ovsyannikov.clustering.model.DistanceInfo;
+import ru.ovsyannikov.clustering.model.DistanceKey;
+import ru.ovsyannikov.clustering.model.DistanceStore;
 import ru.ovsyannikov.parsing.model.Movie;
 
 import java.util.ArrayList;
@@ -14,7 +16,8 @@ import java.util.List;
 public class DistanceUtils {
 
     /**
-     * method for retrieving precalculated distance between given collections from another collection
+     * method for retrieving precalculated distance between given collections from another collection.
+     * Walks the whole list – for repeated lookups build a {@link DistanceStore} once
      * @param distances – list of pairwise distances, from which the target distance will be retrieved
      * @param targetCollection1 – first collection
      * @param targetCollection2 – second collection
@@ -38,6 +41,17 @@ public class DistanceUtils {
         throw new IllegalArgumentException("no appropriate pair of collections provided!");
     }
 
+    /**
+     * the same as {@link #getDistance(List, List, List)}, but with O(1) lookup in the indexed store.
+     * Builds a new key on every call – for repeated lookups keep a {@link DistanceKey} and use
+     * {@link DistanceStore#getDistance(DistanceKey)}, which allocates nothing
+     * @param distances – store filled from {@link CategoricalDistanceProcessor#calculateAttributesDistances}
+     * @param type – type of collections (`actors`, `genres`, ...)
+     */
+    public static double getDistance(DistanceStore distances, String type, List<String> targetCollection1, List<String> targetCollection2) {
+        return distances.getDistance(new DistanceKey(type, targetCollection1, targetCollection2));
+    }
+
     public static List<Movie> getTestMovies() {
         List<Movie> movies = new ArrayList<>();
         movies.add(new Movie("Godfather2",      "Scorsece",  Arrays.asList("crime"),    Arrays.asList("De Niro")));
@@ -4,12 +4,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import ru.ovsyannikov.MovieStorageHelper;
+import ru.ovsyannikov.clustering.model.AttributeSet;
 import ru.ovsyannikov.clustering.model.ClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+import ru.ovsyannikov.clustering.model.FeatureDictionary;
+import ru.ovsyannikov.clustering.seeding.FurthestMoviesSeeding;
+import ru.ovsyannikov.clustering.seeding.SeedingStrategy;
+import ru.ovsyannikov.clustering.similarity.SetSimilarity;
 import ru.ovsyannikov.parsing.model.Movie;
 
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * The class contains an implementation of k-means clustering algorithm
@@ -21,7 +29,44 @@ public class KMeansProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(KMeansProcessor.class);
 
-    private Random random = new Random();
+    private final Random random;
+    // пул для поиска ближайших центров, один на все запуски кластеризации
+    private final ForkJoinPool pool;
+    // словарь значений атрибутов, общий для всех запусков кластеризации
+    private final FeatureDictionary dictionary = new FeatureDictionary();
+    private final SeedingStrategy seedingStrategy;
+    // сходство наборов значений по атрибутам (индексы – атрибуты FeatureDictionary), по умолчанию точное
+    private final SetSimilarity[] similarities = new SetSimilarity[FeatureDictionary.ATTRIBUTES_COUNT];
+
+    public KMeansProcessor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public KMeansProcessor(int parallelism) {
+        this(parallelism, new FurthestMoviesSeeding(), new Random());
+    }
+
+    /**
+     * @param parallelism – количество потоков для поиска ближайших центров
+     * @param seedingStrategy – стратегия выбора начальных центров по умолчанию
+     * @param random – источник случайности для стратегий (с фиксированным seed результат воспроизводим)
+     */
+    public KMeansProcessor(int parallelism, SeedingStrategy seedingStrategy, Random random) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.seedingStrategy = seedingStrategy;
+        this.random = random;
+        Arrays.fill(similarities, SetSimilarity.EXACT);
+    }
+
+    /**
+     * Выбор способа сравнения наборов значений атрибута в {@link #distance(EncodedMovie, EncodedClusterCenter)}:
+     * например, {@link ru.ovsyannikov.clustering.similarity.MinHashSetSimilarity} для длинных списков ключевых слов.
+     * Менять до запуска кластеризации
+     * @param attribute – атрибут из {@link FeatureDictionary}
+     */
+    public void setSimilarity(int attribute, SetSimilarity similarity) {
+        similarities[attribute] = similarity;
+    }
 
     /**
      * Метод для кластеризации фильмов по содержимому.
@@ -85,7 +130,7 @@ public class KMeansProcessor {
 
     /**
      * Метод выполняет стандартную k-means кластеризацию фильмов.
-     * Начальные центры – наиболее удалённые друг от друга фильмы.
+     * Начальные центры выбираются стратегией процессора (по умолчанию – наиболее удалённые друг от друга фильмы).
      * Критерий останова - на новой итерации не произошло изменений.
      *
      * @param movies – список фильмов для кластеризации
@@ -93,125 +138,226 @@ public class KMeansProcessor {
      * @return таблица, в которой ключ – центр кластера (взвешенный), значение – список фильмов
      */
     public ConcurrentMap<ClusterCenter, List<Movie>> performClustering(List<Movie> movies, int numClusters) {
-        ConcurrentMap<ClusterCenter, List<Movie>> clusters = new ConcurrentHashMap<>();
-        ConcurrentMap<ClusterCenter, List<Movie>> previousClusters = new ConcurrentHashMap<>();
-        int iterations = 0;
+        return performClustering(movies, numClusters, seedingStrategy);
+    }
 
-        // наиболее удалённые фильмы выбираются как начальные центры кластеров
-        List<Movie> furthestMovies = getFurthestMovies(movies, numClusters);
-        for (Movie movie : furthestMovies) {
-            clusters.put(new ClusterCenter(Arrays.asList(movie)), Collections.synchronizedList(new ArrayList<>()));
+    /**
+     * @see #performClustering(List, int)
+     * @param seedingStrategy – стратегия выбора начальных центров для этого запуска
+     */
+    public ConcurrentMap<ClusterCenter, List<Movie>> performClustering(List<Movie> movies, int numClusters,
+                                                                       SeedingStrategy seedingStrategy) {
+        if (movies.isEmpty()) {
+            return new ConcurrentHashMap<>();
         }
 
+        EncodedMovie[] items = encode(movies);
+        int iterations = 0;
+
+        // начальные центры кластеров выбираются стратегией (по умолчанию – наиболее удалённые фильмы)
+        List<EncodedClusterCenter> centers = getInitialCenters(items, numClusters, seedingStrategy);
+
+        // assignments[i] – номер центра, ближайшего к i-ому фильму
+        int[] assignments = new int[items.length];
+        assignToNearestCenters(items, centers, assignments);
+        iterations ++;
+        // после первой итерации центры строятся по кластерам целиком, дальше – только по переместившимся фильмам
+        centers = collectClusters(items, assignments, centers.size()).stream()
+                .map(EncodedClusterCenter::new)
+                .collect(Collectors.toList());
+
+        int[] nextAssignments = new int[items.length];
         while (true) {
             iterations ++;
-            // ближайший кластер считается в 32 потока, т.к. иначе по списку movies (длиной порядка нескольких тысяч) долго идти
-            ExecutorService executorService = Executors.newFixedThreadPool(32);
-            for (Movie movie : movies) {
-                executorService.submit(() -> {
-                    double minDistance = Double.MAX_VALUE;
-                    ClusterCenter minDistanceCenter = null;
-                    for (ClusterCenter clusterCenter : clusters.keySet()) {
-                        double distance = distance(movie, clusterCenter);
-                        if (distance < minDistance) {
-                            minDistance = distance;
-                            minDistanceCenter = clusterCenter;
-                        }
-                    }
-
-                    clusters.getOrDefault(minDistanceCenter, Collections.synchronizedList(new ArrayList<>())).add(movie);
-                });
-            }
+            int reassigned = iterate(items, centers, assignments, nextAssignments);
 
-            executorService.shutdown();
-            try {
-                while (!executorService.awaitTermination(24L, TimeUnit.HOURS)) {
-                    System.out.println("Still waiting for the executor to finish");
-                }
-            } catch (InterruptedException e) {
-                logger.error("ERROR", e);
-            }
-
-            // проверка условия останова
-            if (ComparisonUtils.isEqual(clusters, previousClusters)) {
+            // условие останова: ни один фильм не сменил кластер
+            int[] swap = assignments;
+            assignments = nextAssignments;
+            nextAssignments = swap;
+            if (reassigned == 0) {
                 break;
             }
+            logger.debug("iteration {}: {} movies reassigned", iterations, reassigned);
+        }
+
+        logger.info("{} iterations for {} movies and {} clusters", iterations, movies.size(), numClusters);
+        return getResult(items, assignments, centers.size());
+    }
 
-            // дальше сохранение результатов итерации в previousClusters
-            previousClusters.clear();
-            for (ClusterCenter clusterCenter : clusters.keySet()) {
-                previousClusters.put(clusterCenter, clusters.get(clusterCenter));
+    /**
+     * Mini-batch k-means (Sculley, "Web-scale k-means clustering") для больших каталогов:
+     * на каждой итерации центры обновляются только по случайной выборке фильмов.
+     * Центр накапливает гистограммы всех попавших в него фильмов выборок, т.е. у каждого центра своя скорость
+     * обучения 1/v, где v – сколько фильмов выборок он уже получил. Множитель sqrt(Nc) в расстоянии заменяется
+     * оценкой размера кластера по долям выборок.
+     * Останов – по относительному изменению сглаженного среднего расстояния (tolerance),
+     * количеству итераций или времени; в конце все фильмы один раз распределяются по ближайшим центрам.
+     *
+     * @param movies – список фильмов для кластеризации
+     * @param numClusters – требуемое количество кластеров
+     * @param settings – параметры mini-batch режима
+     * @return таблица, в которой ключ – центр кластера (взвешенный), значение – список фильмов
+     */
+    public ConcurrentMap<ClusterCenter, List<Movie>> performMiniBatchClustering(List<Movie> movies, int numClusters,
+                                                                                MiniBatchSettings settings) {
+        if (movies.isEmpty()) {
+            return new ConcurrentHashMap<>();
+        }
+
+        long deadline = System.currentTimeMillis() + settings.getMaxDurationMillis();
+        EncodedMovie[] items = encode(movies);
+        List<EncodedClusterCenter> centers = getInitialCenters(items, numClusters, seedingStrategy);
+        double[] clusterSizes = new double[centers.size()];
+        Arrays.fill(clusterSizes, (double) items.length / centers.size());
+
+        int batchSize = Math.min(settings.getBatchSize(), items.length);
+        EncodedMovie[] batch = new EncodedMovie[batchSize];
+        int[] batchAssignments = new int[batchSize];
+        double[] batchDistances = new double[batchSize];
+        // вес новой выборки в сглаженном среднем расстоянии
+        double smoothing = Math.min(1.0, 2.0 * batchSize / (items.length + 1));
+        double averageDistance = Double.NaN;
+        int iterations = 0;
+        while (iterations < settings.getMaxIterations() && System.currentTimeMillis() < deadline) {
+            iterations ++;
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = items[random.nextInt(items.length)];
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, batchSize)
+                    .parallel()
+                    .forEach(i -> {
+                        int nearest = getNearestCenter(batch[i], centers, clusterSizes);
+                        batchAssignments[i] = nearest;
+                        batchDistances[i] = distance(batch[i], centers.get(nearest), clusterSizes[nearest]);
+                    })));
+
+            int[] batchCounts = new int[centers.size()];
+            double batchDistance = 0;
+            for (int i = 0; i < batchSize; i++) {
+                centers.get(batchAssignments[i]).add(batch[i]);
+                batchCounts[batchAssignments[i]]++;
+                batchDistance += batchDistances[i];
+            }
+            for (int c = 0; c < centers.size(); c++) {
+                clusterSizes[c] += ((double) batchCounts[c] * items.length / batchSize - clusterSizes[c]) / (iterations + 1);
             }
 
-            clusters.clear();
-            for (ClusterCenter clusterCenter : previousClusters.keySet()) {
-                clusters.put(new ClusterCenter(previousClusters.get(clusterCenter)), Collections.synchronizedList(new ArrayList<>()));
+            batchDistance /= batchSize;
+            if (Double.isNaN(averageDistance)) {
+                averageDistance = batchDistance;
+            } else {
+                double previousDistance = averageDistance;
+                averageDistance = previousDistance * (1 - smoothing) + batchDistance * smoothing;
+                if (Math.abs(previousDistance - averageDistance) <= settings.getTolerance() * previousDistance) {
+                    break;
+                }
             }
         }
 
-        logger.info("{} iterations for {} movies and {} clusters", iterations, movies.size(), numClusters);
-        return clusters;
+        int[] assignments = new int[items.length];
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, items.length)
+                .parallel()
+                .forEach(i -> assignments[i] = getNearestCenter(items[i], centers, clusterSizes))));
+
+        logger.info("{} mini-batch iterations for {} movies and {} clusters", iterations, movies.size(), numClusters);
+        return getResult(items, assignments, centers.size());
     }
 
     /**
-     * из коллекции выбирается заданное количество наиболее удалённых друг от друга (по содержимому) фильмов.
-     *
-     * @param movies – коллекция фильмов для выбора наиболее удалённых
-     * @param requiredMovies – требуемое количество фильмов
-     * @return набор (Set) наиболее удалённых друг от друга фильмов
+     * Одна итерация k-means: параллельный поиск ближайших центров и инкрементальное обновление центров
+     * по переместившимся фильмам. Точка входа для замера одной итерации в KMeansBenchmark (benchmarks),
+     * {@link #performClustering} вызывает её в цикле
+     * @param assignments – текущие номера центров фильмов
+     * @param nextAssignments – заполняется новыми номерами центров
+     * @return количество фильмов, сменивших кластер
      */
-    private List<Movie> getFurthestMovies(List<Movie> movies, int requiredMovies) {
-        Set<Movie> result = new HashSet<>();
-        for (Movie movie : movies) {
-            if (movie.getGenres().contains("мультфильм")) {
-                result.add(movie);
-                break;
+    public int iterate(EncodedMovie[] items, List<EncodedClusterCenter> centers, int[] assignments, int[] nextAssignments) {
+        assignToNearestCenters(items, centers, nextAssignments);
+
+        int reassigned = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (assignments[i] != nextAssignments[i]) {
+                reassigned ++;
+                centers.get(assignments[i]).remove(items[i]);
+                centers.get(nextAssignments[i]).add(items[i]);
             }
         }
 
-        if (result.isEmpty()) {
-            result.add(movies.get(random.nextInt(movies.size())));
+        return reassigned;
+    }
+
+    private EncodedMovie[] encode(List<Movie> movies) {
+        EncodedMovie[] items = new EncodedMovie[movies.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = dictionary.encode(movies.get(i));
         }
 
-        while (result.size() < requiredMovies) {
-            Movie maxDistanceMovie = null;
-            double maxDistance = 0;
-            for (Movie movie : movies) {
-                if (!result.contains(movie)) {
-                    result.add(movie);
-                    // выбирается фильм, при добавлении которого в набор достигается максимальное среднее расстояние между парами
-                    double distance = getAverageDistance(new ArrayList<>(result));
-                    if (distance > maxDistance) {
-                        maxDistanceMovie = movie;
-                        maxDistance = distance;
-                    }
-
-                    result.remove(movie);
-                }
-            }
+        return items;
+    }
 
-            result.add(maxDistanceMovie);
+    private List<EncodedClusterCenter> getInitialCenters(EncodedMovie[] items, int numClusters, SeedingStrategy seedingStrategy) {
+        int[] seeds = pool.invoke(ForkJoinTask.adapt(() -> seedingStrategy.selectSeeds(items, numClusters, this, random)));
+        List<EncodedClusterCenter> centers = new ArrayList<>();
+        for (int seed : seeds) {
+            centers.add(new EncodedClusterCenter(Arrays.asList(items[seed])));
         }
 
-        return new ArrayList<>(result);
+        return centers;
+    }
+
+    private ConcurrentMap<ClusterCenter, List<Movie>> getResult(EncodedMovie[] items, int[] assignments, int numClusters) {
+        ConcurrentMap<ClusterCenter, List<Movie>> result = new ConcurrentHashMap<>();
+        for (List<EncodedMovie> cluster : collectClusters(items, assignments, numClusters)) {
+            List<Movie> clusterMovies = cluster.stream()
+                    .map(EncodedMovie::getMovie)
+                    .collect(Collectors.toList());
+            result.put(new ClusterCenter(clusterMovies), clusterMovies);
+        }
+
+        return result;
     }
 
     /**
-     * Подсчёт среднего расстояния между парами фильмов в списке
-     * @param movies – список фильмов
-     * @return – сумма расстояний между всеми парами, деленая на количество пар фильмов
+     * Ближайший центр для каждого фильма считается параллельно на общем пуле:
+     * каждая задача пишет только в свою ячейку массива, поэтому блокировки не нужны
      */
-    private double getAverageDistance(List<Movie> movies) {
-        int count = 0;
-        double distance = 0;
-        for (int i = 0; i < movies.size(); i++) {
-            for (int j = 0; j < i; j++) {
-                count ++;
-                distance += distance(movies.get(i), movies.get(j));
+    private void assignToNearestCenters(EncodedMovie[] movies, List<EncodedClusterCenter> centers, int[] assignments) {
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, movies.length)
+                .parallel()
+                .forEach(i -> assignments[i] = getNearestCenter(movies[i], centers, null))));
+    }
+
+    /**
+     * @param clusterSizes – оценки размеров кластеров для mini-batch режима, null – размеры центров
+     * @return номер ближайшего центра; при равных расстояниях выбирается центр с меньшим номером,
+     * фильм без конечного расстояния до центров попадает в первый кластер
+     */
+    private int getNearestCenter(EncodedMovie movie, List<EncodedClusterCenter> centers, double[] clusterSizes) {
+        double minDistance = Double.POSITIVE_INFINITY;
+        int nearest = 0;
+        for (int i = 0; i < centers.size(); i++) {
+            double distance = clusterSizes == null ? distance(movie, centers.get(i)) :
+                    distance(movie, centers.get(i), clusterSizes[i]);
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = i;
             }
         }
 
-        return distance / count;
+        return nearest;
+    }
+
+    private List<List<EncodedMovie>> collectClusters(EncodedMovie[] movies, int[] assignments, int numClusters) {
+        List<List<EncodedMovie>> clusters = new ArrayList<>(numClusters);
+        for (int i = 0; i < numClusters; i++) {
+            clusters.add(new ArrayList<>());
+        }
+        for (int i = 0; i < movies.length; i++) {
+            clusters.get(assignments[i]).add(movies[i]);
+        }
+
+        return clusters;
     }
 
     public double distance(Movie movie1, Movie movie2) {
@@ -226,31 +372,117 @@ public class KMeansProcessor {
             return Double.MAX_VALUE;
         }
 
+        double dist = attributeDistance(AttributeSet.of(movie.getGenres()), center.getGenres(), center.getNc());
+        dist *= 10;
+        dist += attributeDistance(AttributeSet.of(movie.getActors()), center.getActors(), center.getNc());
+        dist += attributeDistance(AttributeSet.of(Arrays.asList(movie.getDirector())), center.getDirectors(), center.getNc());
+//        dist += attributeDistance(AttributeSet.of(movie.getKeywords()), center.getKeywords(), center.getNc());
+
+        return dist * Math.sqrt(center.getNc());
+    }
+
+    /**
+     * @param movieValues – значение атрибута фильма, приводится к {@link AttributeSet} один раз на вызов distance
+     */
+    private double attributeDistance(AttributeSet movieValues, Map<AttributeSet, Integer> centerValues, int Nc) {
         double dist = 0.0;
-        for (List<String> genresList : center.getGenres().keySet()) {
-            double genresDistance = (double) center.getGenres().get(genresList) / center.getNc() *
-                    (1 - ComparisonUtils.getListsSimilarity(genresList, movie.getGenres()));
-            dist += genresDistance * genresDistance;
+        for (Map.Entry<AttributeSet, Integer> entry : centerValues.entrySet()) {
+            double attributeDistance = (double) entry.getValue() / Nc *
+                    (1 - ComparisonUtils.getListsSimilarity(entry.getKey(), movieValues));
+            dist += attributeDistance * attributeDistance;
         }
+
+        return dist;
+    }
+
+    /**
+     * The same distance as {@link #distance(Movie, ClusterCenter)} over encoded attributes;
+     * sets are compared with the similarities chosen by {@link #setSimilarity} (exact by default)
+     */
+    public double distance(EncodedMovie movie, EncodedClusterCenter center) {
+        return distance(movie, center, center.getNc());
+    }
+
+    /**
+     * @param clusterSize – размер кластера для множителя sqrt(Nc) (в mini-batch режиме – оценка, не меньше 1)
+     */
+    public double distance(EncodedMovie movie, EncodedClusterCenter center, double clusterSize) {
+        if (center.getNc() == 0) {
+            return Double.MAX_VALUE;
+        }
+
+        double dist = attributeDistance(movie, center, FeatureDictionary.GENRES);
         dist *= 10;
+        dist += attributeDistance(movie, center, FeatureDictionary.ACTORS);
+        dist += attributeDistance(movie, center, FeatureDictionary.DIRECTORS);
+//        dist += attributeDistance(movie, center, FeatureDictionary.KEYWORDS);
+
+        return dist * Math.sqrt(Math.max(clusterSize, 1));
+    }
+
+    private double attributeDistance(EncodedMovie movie, EncodedClusterCenter center, int attribute) {
+        double dist = 0.0;
+        int[] movieValues = movie.getValues(attribute);
+        for (int i = 0; i < center.getDistinctSetsCount(attribute); i++) {
+            double attributeDistance = (double) center.getCount(attribute, i) / center.getNc() *
+                    (1 - similarities[attribute].getSimilarity(center.getSet(attribute, i), movieValues));
+            dist += attributeDistance * attributeDistance;
+        }
+
+        return dist;
+    }
+
+    /**
+     * Параметры mini-batch режима {@link #performMiniBatchClustering}
+     */
+    public static class MiniBatchSettings {
+
+        private final int batchSize;
+        private final int maxIterations;
+        private final double tolerance;
+        private final long maxDurationMillis;
+
+        /**
+         * @param batchSize – количество фильмов в выборке
+         * @param maxIterations – максимальное количество итераций
+         * @param tolerance – относительное изменение сглаженного среднего расстояния, при котором алгоритм останавливается
+         * @param maxDurationMillis – бюджет времени (без финального распределения фильмов)
+         */
+        public MiniBatchSettings(int batchSize, int maxIterations, double tolerance, long maxDurationMillis) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+            }
+            if (maxIterations < 1) {
+                throw new IllegalArgumentException("max iterations must be positive: " + maxIterations);
+            }
+            if (!(tolerance >= 0)) {
+                throw new IllegalArgumentException("tolerance must be non-negative: " + tolerance);
+            }
+            if (maxDurationMillis < 1) {
+                throw new IllegalArgumentException("max duration must be positive: " + maxDurationMillis);
+            }
 
-        for (List<String> actorsList : center.getActors().keySet()) {
-            double actorsDistance = (double) center.getActors().get(actorsList) / center.getNc() *
-                    (1 - ComparisonUtils.getListsSimilarity(actorsList, movie.getActors()));
-            dist += actorsDistance * actorsDistance;
+            this.batchSize = batchSize;
+            this.maxIterations = maxIterations;
+            this.tolerance = tolerance;
+            this.maxDurationMillis = maxDurationMillis;
         }
-        for (List<String> directorsList : center.getDirectors().keySet()) {
-            double directorsDistance = (double) center.getDirectors().get(directorsList) / center.getNc() *
-                    (1 - ComparisonUtils.getListsSimilarity(directorsList, Arrays.asList(movie.getDirector())));
-            dist += directorsDistance * directorsDistance;
+
+        public int getBatchSize() {
+            return batchSize;
         }
-//        for (List<String> keywordsList : center.getKeywords().keySet()) {
-//            double keywordsDistance = (double) center.getKeywords().get(keywordsList) / center.getNc() *
-//                    (1 - ComparisonUtils.getListsSimilarity(keywordsList, movie.getKeywords()));
-//            dist += keywordsDistance * keywordsDistance;
-//        }
 
-        return dist * Math.sqrt(center.getNc());
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public long getMaxDurationMillis() {
+            return maxDurationMillis;
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,156 @@
+package ru.ovsyannikov.clustering.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Canonical value of a movie attribute (a cast, a list of genres...): values are sorted once, duplicates are kept,
+ * so lists with the same values in another order give equal sets.
+ * The hash is calculated on construction: a lookup in a hash map costs one comparison of hashes
+ * and one linear pass over the sorted values, nothing is allocated.
+ * Immutable, safe to share between threads.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/4/15
+ */
+public final class AttributeSet {
+
+    private static final Comparator<String> VALUES_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final String[] values;
+    private final int distinctCount;
+    private final int hash;
+
+    private AttributeSet(String[] values) {
+        Arrays.sort(values, VALUES_ORDER);
+        this.values = values;
+
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || !equal(values[i - 1], values[i])) {
+                distinct++;
+            }
+        }
+        this.distinctCount = distinct;
+        this.hash = Arrays.hashCode(values);
+    }
+
+    /**
+     * @return canonical set of the list or null for null list
+     */
+    public static AttributeSet of(List<String> values) {
+        return values == null ? null : new AttributeSet(values.toArray(new String[values.size()]));
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    /**
+     * @return sorted values, duplicates included
+     */
+    public List<String> getValues() {
+        return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    /**
+     * The same as {@link ru.ovsyannikov.clustering.ComparisonUtils#compare} for the source lists:
+     * sizes are equal and the union has as many distinct values as every list has elements.
+     * For sets without duplicates it is the equality of sets, checked by hashes first
+     */
+    public boolean matches(AttributeSet other) {
+        if (values.length != other.values.length) {
+            return false;
+        }
+        if (distinctCount == values.length && other.distinctCount == values.length) {
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        // distinct values of the union by one merge pass
+        int union = 0;
+        int i = 0;
+        int j = 0;
+        String last = null;
+        while (i < values.length || j < other.values.length) {
+            String value;
+            if (j == other.values.length || (i < values.length && VALUES_ORDER.compare(values[i], other.values[j]) <= 0)) {
+                value = values[i++];
+            } else {
+                value = other.values[j++];
+            }
+            if (union == 0 || !equal(last, value)) {
+                union++;
+                last = value;
+            }
+        }
+
+        return union == values.length;
+    }
+
+    /**
+     * The same cosine similarity as {@link ru.ovsyannikov.clustering.ComparisonUtils#getListsSimilarity(List, List)}
+     * for the source lists (null values are equal to each other): one merge pass, runs of duplicates are multiplied
+     */
+    public double getSimilarity(AttributeSet other) {
+        if (values.length == 0 || other.values.length == 0) {
+            return 0.0;
+        }
+
+        int similar = 0;
+        int i = 0;
+        int j = 0;
+        while (i < values.length && j < other.values.length) {
+            int order = VALUES_ORDER.compare(values[i], other.values[j]);
+            if (order < 0) {
+                i++;
+            } else if (order > 0) {
+                j++;
+            } else {
+                String value = values[i];
+                int run1 = 0;
+                while (i < values.length && equal(values[i], value)) {
+                    i++;
+                    run1++;
+                }
+                int run2 = 0;
+                while (j < other.values.length && equal(other.values[j], value)) {
+                    j++;
+                    run2++;
+                }
+                similar += run1 * run2;
+            }
+        }
+
+        return similar / Math.sqrt((double) values.length * other.values.length);
+    }
+
+    private static boolean equal(String value1, String value2) {
+        return value1 == null ? value2 == null : value1.equals(value2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AttributeSet that = (AttributeSet) o;
+
+        return hash == that.hash && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
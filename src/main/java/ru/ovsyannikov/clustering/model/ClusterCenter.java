@@ -5,15 +5,18 @@ import ru.ovsyannikov.parsing.model.Movie;
 import java.util.*;
 
 /**
+ * Histograms of attribute values of the movies of a cluster, keyed by canonical {@link AttributeSet}s:
+ * lists with the same values in another order are the same value.
+ *
  * @author Georgii Ovsiannikov
  * @since 5/11/15
  */
 public class ClusterCenter {
 
-    Map<List<String>, Integer> actors = new HashMap<>();
-    Map<List<String>, Integer> genres = new HashMap<>();
-    Map<List<String>, Integer> directors = new HashMap<>();
-    Map<List<String>, Integer> keywords = new HashMap<>();
+    Map<AttributeSet, Integer> actors = new HashMap<>();
+    Map<AttributeSet, Integer> genres = new HashMap<>();
+    Map<AttributeSet, Integer> directors = new HashMap<>();
+    Map<AttributeSet, Integer> keywords = new HashMap<>();
     List<String> movieTitles = new ArrayList<>();
     Integer Nc;
 
@@ -22,14 +25,10 @@ public class ClusterCenter {
         for (Movie movie : movies) {
             try {
                 movieTitles.add(movie.getTitle());
-                Integer count = actors.getOrDefault(movie.getActors(), 0);
-                actors.put(movie.getActors(), count + 1);
-                count = genres.getOrDefault(movie.getGenres(), 0);
-                genres.put(movie.getGenres(), count + 1);
-                count = directors.getOrDefault(Arrays.asList(movie.getDirector()), 0);
-                directors.put(Arrays.asList(movie.getDirector()), count + 1);
-                count = keywords.getOrDefault(movie.getKeywords(), 0);
-                keywords.put(movie.getKeywords(), count + 1);
+                actors.merge(AttributeSet.of(movie.getActors()), 1, Integer::sum);
+                genres.merge(AttributeSet.of(movie.getGenres()), 1, Integer::sum);
+                directors.merge(AttributeSet.of(Arrays.asList(movie.getDirector())), 1, Integer::sum);
+                keywords.merge(AttributeSet.of(movie.getKeywords()), 1, Integer::sum);
             } catch (Throwable e) {
                 e.printStackTrace();
                 long count = movies.stream().filter(m -> m == null).count();
@@ -38,19 +37,19 @@ public class ClusterCenter {
         }
     }
 
-    public Map<List<String>, Integer> getActors() {
+    public Map<AttributeSet, Integer> getActors() {
         return actors;
     }
 
-    public Map<List<String>, Integer> getGenres() {
+    public Map<AttributeSet, Integer> getGenres() {
         return genres;
     }
 
-    public Map<List<String>, Integer> getDirectors() {
+    public Map<AttributeSet, Integer> getDirectors() {
         return directors;
     }
 
-    public Map<List<String>, Integer> getKeywords() {
+    public Map<AttributeSet, Integer> getKeywords() {
         return keywords;
     }
 
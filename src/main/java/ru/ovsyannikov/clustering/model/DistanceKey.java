@@ -3,6 +3,10 @@ package ru.ovsyannikov.clustering.model;
 import java.util.List;
 
 /**
+ * Key of a distance lookup in {@link DistanceStore}. Canonical sets of the collections are built on the first lookup
+ * and kept until a setter replaces a collection, so lookups by the same key allocate nothing.
+ * The collections must not be modified after the first lookup
+ *
  * @author Georgii Ovsiannikov
  * @since 5/17/15
  */
@@ -12,6 +16,10 @@ public class DistanceKey {
     List<String> collection2;
     String type;
 
+    // canonical sets of the collections, null until the first lookup
+    private AttributeSet set1;
+    private AttributeSet set2;
+
     public DistanceKey(String type, List<String> collection1, List<String> collection2) {
         this.type = type;
         this.collection1 = collection1;
@@ -24,6 +32,7 @@ public class DistanceKey {
 
     public void setCollection1(List<String> collection1) {
         this.collection1 = collection1;
+        this.set1 = null;
     }
 
     public List<String> getCollection2() {
@@ -32,6 +41,28 @@ public class DistanceKey {
 
     public void setCollection2(List<String> collection2) {
         this.collection2 = collection2;
+        this.set2 = null;
+    }
+
+    /**
+     * @return canonical set of the first collection, null for null collection
+     */
+    AttributeSet getAttributeSet1() {
+        // AttributeSet is immutable, a set built twice by racing threads is the same value
+        if (set1 == null && collection1 != null) {
+            set1 = AttributeSet.of(collection1);
+        }
+        return set1;
+    }
+
+    /**
+     * @return canonical set of the second collection, null for null collection
+     */
+    AttributeSet getAttributeSet2() {
+        if (set2 == null && collection2 != null) {
+            set2 = AttributeSet.of(collection2);
+        }
+        return set2;
     }
 
     public String getType() {
@@ -0,0 +1,152 @@
+package ru.ovsyannikov.clustering.model;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary file with precalculated distances of a {@link DistanceStore}:
+ * <pre>
+ * int magic, int version, int number of types
+ * for every type:
+ *   UTF type, int number of values n
+ *   n values: int size (-1 for null) and size elements: boolean "not null", UTF element
+ *   zero padding to 4 bytes
+ *   n * (n - 1) / 2 floats – upper triangle of the distance matrix by rows: (0, 1), (0, 2) ... (0, n-1), (1, 2) ...
+ * </pre>
+ * Numbers are big-endian (as written by {@link DataOutputStream}). Missing distances are NaN.
+ * {@link #map} reads only the values and maps the matrices into memory, so processes reading the same file
+ * share the page cache and start without recalculating or parsing the distances.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/30/15
+ */
+public class DistanceMatrixFile {
+
+    private static final int MAGIC = 0x44495354; // "DIST"
+    private static final int VERSION = 1;
+    // matrices larger than a mapped buffer (2 GB) are mapped by chunks, a float never crosses a chunk border
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    public static void write(DistanceStore store, File file) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(store.getTypes().size());
+            for (String type : store.getTypes()) {
+                DistanceStore.Table table = store.getTable(type);
+                out.writeUTF(type);
+                out.writeInt(table.size());
+                for (int id = 0; id < table.size(); id++) {
+                    List<String> value = table.getValue(id);
+                    out.writeInt(value == null ? -1 : value.size());
+                    if (value != null) {
+                        for (String element : value) {
+                            out.writeBoolean(element != null);
+                            if (element != null) {
+                                out.writeUTF(element);
+                            }
+                        }
+                    }
+                }
+
+                while (counter.getCount() % 4 != 0) {
+                    out.writeByte(0);
+                }
+                for (int id1 = 0; id1 < table.size(); id1++) {
+                    for (int id2 = id1 + 1; id2 < table.size(); id2++) {
+                        out.writeFloat((float) table.getDistance(id1, id2));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return store with values read into memory and matrices mapped from the file
+     */
+    public static DistanceStore map(File file) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileChannel channel = stream.getChannel();
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream));
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a distance matrix file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported version " + version + " of " + file);
+            }
+
+            Map<String, DistanceStore.Table> tables = new LinkedHashMap<>();
+            int typesCount = in.readInt();
+            for (int t = 0; t < typesCount; t++) {
+                String type = in.readUTF();
+                int count = in.readInt();
+                List<List<String>> values = new ArrayList<>(count);
+                for (int id = 0; id < count; id++) {
+                    int size = in.readInt();
+                    List<String> value = size < 0 ? null : new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        value.add(in.readBoolean() ? in.readUTF() : null);
+                    }
+                    values.add(value);
+                }
+
+                ByteStreams.skipFully(in, (4 - counter.getCount() % 4) % 4);
+                long matrixBytes = 4L * getMatrixSize(count);
+                tables.put(type, new DistanceStore.Table(values, new MappedMatrix(channel, counter.getCount(), matrixBytes, count)));
+                ByteStreams.skipFully(in, matrixBytes);
+            }
+
+            return new DistanceStore(tables);
+        }
+    }
+
+    private static long getMatrixSize(int count) {
+        return (long) count * (count - 1) / 2;
+    }
+
+    /**
+     * Upper triangle of a distance matrix in mapped buffers
+     */
+    private static class MappedMatrix implements DistanceStore.Matrix {
+
+        private final MappedByteBuffer[] chunks;
+        private final int count;
+
+        MappedMatrix(FileChannel channel, long offset, long size, int count) throws IOException {
+            this.count = count;
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long chunkOffset = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + chunkOffset, Math.min(CHUNK_SIZE, size - chunkOffset));
+            }
+        }
+
+        @Override
+        public float get(int id1, int id2) {
+            // (id1, id2) is preceded by rows 0..id1-1 of lengths count-1, count-2 ...
+            long index = (long) id1 * (2L * count - id1 - 1) / 2 + (id2 - id1 - 1);
+            long byteOffset = index * 4;
+            return chunks[(int) (byteOffset >>> CHUNK_BITS)].getFloat((int) (byteOffset & (CHUNK_SIZE - 1)));
+        }
+    }
+}
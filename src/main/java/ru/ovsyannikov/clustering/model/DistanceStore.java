@@ -0,0 +1,184 @@
+package ru.ovsyannikov.clustering.model;
+
+import com.google.common.collect.Multimap;
+import ru.ovsyannikov.clustering.ComparisonUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Symmetric store of precalculated distances between attribute values
+ * (see {@link ru.ovsyannikov.clustering.CategoricalDistanceProcessor#calculateAttributesDistances}).
+ * Values of every type are interned into ids (values in another order are the same value),
+ * distances are kept in a triangular float matrix – on the heap or mapped from a file written by {@link DistanceMatrixFile}.
+ * Lookup is O(1) and allocates nothing: by a {@link DistanceKey}, which keeps the canonical sets of its collections
+ * after the first lookup, or by ids resolved once with {@link Table#getId} ({@link Table#getDistance(int, int)}).
+ * Immutable after construction, safe to read from several threads.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/30/15
+ */
+public class DistanceStore {
+
+    private final Map<String, Table> tables;
+
+    DistanceStore(Map<String, Table> tables) {
+        this.tables = tables;
+    }
+
+    public static DistanceStore fromDistances(Multimap<String, DistanceInfo<String>> distances) {
+        Map<String, Table> tables = new LinkedHashMap<>();
+        for (String type : distances.keySet()) {
+            tables.put(type, new Table(distances.get(type)));
+        }
+
+        return new DistanceStore(tables);
+    }
+
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * @return table of the type or null if there are no distances of the type
+     */
+    public Table getTable(String type) {
+        return tables.get(type);
+    }
+
+    /**
+     * The same as {@link ru.ovsyannikov.clustering.DistanceUtils#getDistance} over the list of distances of the key type.
+     * Only the first lookup by a key canonicalizes its collections, reuse the keys
+     */
+    public double getDistance(DistanceKey key) {
+        AttributeSet set1 = key.getAttributeSet1();
+        AttributeSet set2 = key.getAttributeSet2();
+        if (ComparisonUtils.compare(set1, set2)) {
+            return 0;
+        }
+
+        Table table = tables.get(key.getType());
+        double distance = table == null ? Double.NaN : table.getDistance(table.getId(set1), table.getId(set2));
+        if (Double.isNaN(distance)) {
+            throw new IllegalArgumentException("no appropriate pair of collections provided!");
+        }
+
+        return distance;
+    }
+
+    /**
+     * Distances between values of one type
+     */
+    public static class Table {
+
+        private final Map<AttributeSet, Integer> ids = new HashMap<>();
+        private final List<List<String>> values = new ArrayList<>();
+        private int nullId = -1;
+        private final Matrix matrix;
+
+        Table(Collection<DistanceInfo<String>> typeDistances) {
+            for (DistanceInfo<String> info : typeDistances) {
+                intern(info.getCollection1());
+                intern(info.getCollection2());
+            }
+
+            // row i holds distances to ids 0..i-1
+            float[][] distances = new float[values.size()][];
+            for (int id = 0; id < distances.length; id++) {
+                distances[id] = new float[id];
+                Arrays.fill(distances[id], Float.NaN);
+            }
+
+            for (DistanceInfo<String> info : typeDistances) {
+                int id1 = getId(info.getCollection1());
+                int id2 = getId(info.getCollection2());
+                if (id1 != id2) {
+                    distances[Math.max(id1, id2)][Math.min(id1, id2)] = (float) info.getDistance();
+                }
+            }
+            matrix = (id1, id2) -> distances[id2][id1];
+        }
+
+        /**
+         * @param values – values by id (sorted, null for the null value)
+         */
+        Table(List<List<String>> values, Matrix matrix) {
+            values.forEach(this::intern);
+            this.matrix = matrix;
+        }
+
+        /**
+         * @return id of the value or -1 if there are no distances for it
+         */
+        public int getId(List<String> values) {
+            return getId(AttributeSet.of(values));
+        }
+
+        /**
+         * @return id of the value (null for the null value) or -1 if there are no distances for it
+         */
+        public int getId(AttributeSet value) {
+            if (value == null) {
+                return nullId;
+            }
+
+            Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @return sorted value with the id
+         */
+        public List<String> getValue(int id) {
+            return values.get(id);
+        }
+
+        /**
+         * @return distance between values with the ids (0 for the same id), NaN if it was not calculated
+         */
+        public double getDistance(int id1, int id2) {
+            if (id1 < 0 || id2 < 0) {
+                return Double.NaN;
+            }
+
+            return id1 == id2 ? 0 : matrix.get(Math.min(id1, id2), Math.max(id1, id2));
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        private void intern(List<String> value) {
+            if (value == null) {
+                if (nullId < 0) {
+                    nullId = values.size();
+                    values.add(null);
+                }
+            } else {
+                AttributeSet key = AttributeSet.of(value);
+                if (!ids.containsKey(key)) {
+                    ids.put(key, values.size());
+                    values.add(key.getValues());
+                }
+            }
+        }
+    }
+
+    /**
+     * Distances above the diagonal of a symmetric matrix
+     */
+    interface Matrix {
+
+        /**
+         * @return distance between ids id1 < id2
+         */
+        float get(int id1, int id2);
+    }
+}
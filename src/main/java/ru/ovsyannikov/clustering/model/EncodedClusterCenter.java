@@ -0,0 +1,105 @@
+package ru.ovsyannikov.clustering.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cluster center over {@link EncodedMovie}s: for every attribute keeps the histogram of attribute sets
+ * of the movies in the cluster (set id -> number of movies), the same data as {@link ClusterCenter} maps
+ * but without string lists as keys.
+ * The center is mutable: movies moving between clusters are applied with {@link #add} and {@link #remove},
+ * so the center is never rebuilt from the whole cluster. Not thread-safe – updates must not overlap with reads.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/26/15
+ */
+public class EncodedClusterCenter {
+
+    // [attribute][i] – i-th distinct set of the attribute in the cluster, first `sizes[attribute]` are in use
+    private final int[][] setIds = new int[FeatureDictionary.ATTRIBUTES_COUNT][];
+    private final int[][][] sets = new int[FeatureDictionary.ATTRIBUTES_COUNT][][];
+    private final int[][] counts = new int[FeatureDictionary.ATTRIBUTES_COUNT][];
+    private final int[] sizes = new int[FeatureDictionary.ATTRIBUTES_COUNT];
+    // set id -> position in the arrays above
+    private final List<Map<Integer, Integer>> positions = Arrays.asList(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+    private int Nc;
+
+    public EncodedClusterCenter(List<EncodedMovie> movies) {
+        for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT; attribute++) {
+            setIds[attribute] = new int[4];
+            sets[attribute] = new int[4][];
+            counts[attribute] = new int[4];
+        }
+        movies.forEach(this::add);
+    }
+
+    public void add(EncodedMovie movie) {
+        Nc++;
+        for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT; attribute++) {
+            int setId = movie.getSetId(attribute);
+            Integer position = positions.get(attribute).get(setId);
+            if (position == null) {
+                position = sizes[attribute]++;
+                if (position == setIds[attribute].length) {
+                    setIds[attribute] = Arrays.copyOf(setIds[attribute], position * 2);
+                    sets[attribute] = Arrays.copyOf(sets[attribute], position * 2);
+                    counts[attribute] = Arrays.copyOf(counts[attribute], position * 2);
+                }
+                setIds[attribute][position] = setId;
+                sets[attribute][position] = movie.getValues(attribute);
+                counts[attribute][position] = 0;
+                positions.get(attribute).put(setId, position);
+            }
+            counts[attribute][position]++;
+        }
+    }
+
+    public void remove(EncodedMovie movie) {
+        for (int attribute = 0; attribute < FeatureDictionary.ATTRIBUTES_COUNT; attribute++) {
+            int setId = movie.getSetId(attribute);
+            Integer position = positions.get(attribute).get(setId);
+            if (position == null) {
+                throw new IllegalArgumentException("movie " + movie + " is not in the cluster");
+            }
+
+            if (--counts[attribute][position] == 0) {
+                // the last set takes place of the removed one
+                int last = --sizes[attribute];
+                positions.get(attribute).remove(setId);
+                if (position != last) {
+                    setIds[attribute][position] = setIds[attribute][last];
+                    sets[attribute][position] = sets[attribute][last];
+                    counts[attribute][position] = counts[attribute][last];
+                    positions.get(attribute).put(setIds[attribute][position], position);
+                }
+                sets[attribute][last] = null;
+            }
+        }
+        Nc--;
+    }
+
+    public int getDistinctSetsCount(int attribute) {
+        return sizes[attribute];
+    }
+
+    public int getSetId(int attribute, int i) {
+        return setIds[attribute][i];
+    }
+
+    /**
+     * @return sorted value ids of the i-th set (null for movies without the attribute)
+     */
+    public int[] getSet(int attribute, int i) {
+        return sets[attribute][i];
+    }
+
+    public int getCount(int attribute, int i) {
+        return counts[attribute][i];
+    }
+
+    public int getNc() {
+        return Nc;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ovsyannikov.clustering.model;
+
+import ru.ovsyannikov.parsing.model.Movie;
+
+/**
+ * Movie with attributes encoded by {@link FeatureDictionary}: sorted int arrays of value ids
+ * and ids of the sets, indexed by {@link FeatureDictionary#ACTORS}, {@link FeatureDictionary#GENRES} etc.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/26/15
+ */
+public class EncodedMovie {
+
+    private final Movie movie;
+    private final int[][] values;
+    private final int[] setIds;
+
+    public EncodedMovie(Movie movie, int[][] values, int[] setIds) {
+        this.movie = movie;
+        this.values = values;
+        this.setIds = setIds;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    /**
+     * @return sorted value ids of the attribute, null if the movie has no such attribute
+     */
+    public int[] getValues(int attribute) {
+        return values[attribute];
+    }
+
+    /**
+     * @return id of the set of values of the attribute, -1 if the movie has no such attribute
+     */
+    public int getSetId(int attribute) {
+        return setIds[attribute];
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedMovie{" +
+                "movie=" + movie +
+                '}';
+    }
+}
@@ -0,0 +1,141 @@
+package ru.ovsyannikov.clustering.model;
+
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of movie attributes: every actor, genre, director and keyword is interned into an int id,
+ * every distinct set of values of an attribute (e.g. the cast of a movie) – into a set id.
+ * Ids are assigned per attribute, starting from 0.
+ * Encoding is not thread-safe, it is expected to happen once, before movies are processed in parallel.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/26/15
+ */
+public class FeatureDictionary {
+
+    public static final int ACTORS = 0;
+    public static final int GENRES = 1;
+    public static final int DIRECTORS = 2;
+    public static final int KEYWORDS = 3;
+    public static final int ATTRIBUTES_COUNT = 4;
+
+    private final List<Map<String, Integer>> valueIds = new ArrayList<>();
+    private final List<List<String>> values = new ArrayList<>();
+    private final List<Map<ValueSet, Integer>> setIds = new ArrayList<>();
+    private final List<List<int[]>> sets = new ArrayList<>();
+
+    public FeatureDictionary() {
+        for (int attribute = 0; attribute < ATTRIBUTES_COUNT; attribute++) {
+            valueIds.add(new HashMap<>());
+            values.add(new ArrayList<>());
+            setIds.add(new HashMap<>());
+            sets.add(new ArrayList<>());
+        }
+    }
+
+    public EncodedMovie encode(Movie movie) {
+        int[][] encoded = new int[ATTRIBUTES_COUNT][];
+        int[] encodedSetIds = new int[ATTRIBUTES_COUNT];
+        encoded[ACTORS] = encode(ACTORS, movie.getActors());
+        encoded[GENRES] = encode(GENRES, movie.getGenres());
+        encoded[DIRECTORS] = encode(DIRECTORS, Arrays.asList(movie.getDirector()));
+        encoded[KEYWORDS] = encode(KEYWORDS, movie.getKeywords());
+        for (int attribute = 0; attribute < ATTRIBUTES_COUNT; attribute++) {
+            encodedSetIds[attribute] = internSet(attribute, encoded[attribute]);
+            // the same array instance is shared by all movies with equal sets
+            encoded[attribute] = encodedSetIds[attribute] < 0 ? null : sets.get(attribute).get(encodedSetIds[attribute]);
+        }
+
+        return new EncodedMovie(movie, encoded, encodedSetIds);
+    }
+
+    /**
+     * @return sorted ids of the values (duplicates are kept) or null for null list
+     */
+    public int[] encode(int attribute, List<String> attributeValues) {
+        if (attributeValues == null) {
+            return null;
+        }
+
+        int[] result = new int[attributeValues.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = internValue(attribute, attributeValues.get(i));
+        }
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    public int internValue(int attribute, String value) {
+        Integer id = valueIds.get(attribute).get(value);
+        if (id == null) {
+            id = values.get(attribute).size();
+            valueIds.get(attribute).put(value, id);
+            values.get(attribute).add(value);
+        }
+
+        return id;
+    }
+
+    /**
+     * @return id of the set of values or -1 for null
+     */
+    public int internSet(int attribute, int[] sortedValues) {
+        if (sortedValues == null) {
+            return -1;
+        }
+
+        ValueSet key = new ValueSet(sortedValues);
+        Integer id = setIds.get(attribute).get(key);
+        if (id == null) {
+            id = sets.get(attribute).size();
+            setIds.get(attribute).put(key, id);
+            sets.get(attribute).add(sortedValues);
+        }
+
+        return id;
+    }
+
+    public String getValue(int attribute, int valueId) {
+        return values.get(attribute).get(valueId);
+    }
+
+    public int[] getSet(int attribute, int setId) {
+        return sets.get(attribute).get(setId);
+    }
+
+    public int getValuesCount(int attribute) {
+        return values.get(attribute).size();
+    }
+
+    public int getSetsCount(int attribute) {
+        return sets.get(attribute).size();
+    }
+
+    private static class ValueSet {
+
+        private final int[] values;
+        private final int hash;
+
+        ValueSet(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof ValueSet && Arrays.equals(values, ((ValueSet) o).values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.ovsyannikov.clustering.seeding;
+
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Исходная стратегия: из коллекции выбирается заданное количество наиболее удалённых друг от друга (по содержимому) фильмов.
+ * Первый центр – мультфильм (или случайный фильм), каждый следующий – фильм, при добавлении которого в набор
+ * достигается максимальное среднее расстояние между парами.
+ * Попарные расстояния внутри набора не зависят от кандидата, поэтому для кандидата достаточно суммы расстояний
+ * до уже выбранных фильмов – она накапливается по мере выбора (O(n·k) расстояний вместо O(n·k^3)).
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/27/15
+ */
+public class FurthestMoviesSeeding implements SeedingStrategy {
+
+    @Override
+    public int[] selectSeeds(EncodedMovie[] movies, int numClusters, KMeansProcessor processor, Random random) {
+        int seedsCount = SeedingUtils.getSeedsCount(movies.length, numClusters);
+        int[] seeds = new int[seedsCount];
+        if (seedsCount == 0) {
+            return seeds;
+        }
+
+        seeds[0] = -1;
+        for (int i = 0; i < movies.length; i++) {
+            if (movies[i].getMovie().getGenres() != null && movies[i].getMovie().getGenres().contains("мультфильм")) {
+                seeds[0] = i;
+                break;
+            }
+        }
+        if (seeds[0] < 0) {
+            seeds[0] = random.nextInt(movies.length);
+        }
+
+        boolean[] chosen = new boolean[movies.length];
+        double[] distanceSums = new double[movies.length];
+        for (int s = 1; s < seedsCount; s++) {
+            int last = seeds[s - 1];
+            chosen[last] = true;
+            EncodedClusterCenter center = SeedingUtils.getCenter(movies[last]);
+            IntStream.range(0, movies.length).parallel()
+                    .filter(i -> !chosen[i])
+                    .forEach(i -> distanceSums[i] += processor.distance(movies[i], center));
+
+            int maxDistanceMovie = -1;
+            double maxDistance = 0;
+            for (int i = 0; i < movies.length; i++) {
+                if (!chosen[i] && distanceSums[i] > maxDistance) {
+                    maxDistanceMovie = i;
+                    maxDistance = distanceSums[i];
+                }
+            }
+
+            if (maxDistanceMovie < 0) {
+                // все оставшиеся фильмы совпадают с выбранными
+                return Arrays.copyOf(seeds, s);
+            }
+            seeds[s] = maxDistanceMovie;
+        }
+
+        return seeds;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.ovsyannikov.clustering.seeding;
+
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * k-means|| seeding (Bahmani et al., "Scalable k-means++"): in a few rounds about `oversampling * k` candidates
+ * are sampled independently and in parallel with probability proportional to the squared distance,
+ * then candidates are weighted by the number of movies closest to them and reduced to k centers
+ * with weighted k-means++.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/27/15
+ */
+public class KMeansParallelSeeding implements SeedingStrategy {
+
+    private final double oversampling;
+    private final int rounds;
+
+    public KMeansParallelSeeding() {
+        this(2.0, 5);
+    }
+
+    public KMeansParallelSeeding(double oversampling, int rounds) {
+        this.oversampling = oversampling;
+        this.rounds = rounds;
+    }
+
+    @Override
+    public int[] selectSeeds(EncodedMovie[] movies, int numClusters, KMeansProcessor processor, Random random) {
+        int seedsCount = SeedingUtils.getSeedsCount(movies.length, numClusters);
+        if (seedsCount == 0) {
+            return new int[0];
+        }
+
+        boolean[] isCandidate = new boolean[movies.length];
+        double[] weights = new double[movies.length];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+        int[] candidates = new int[]{random.nextInt(movies.length)};
+        isCandidate[candidates[0]] = true;
+        SeedingUtils.updateSquaredDistances(movies, movies[candidates[0]], processor, weights);
+
+        double expected = oversampling * seedsCount;
+        for (int round = 0; round < rounds; round++) {
+            double psi = Arrays.stream(weights).sum();
+            if (psi == 0) {
+                break;
+            }
+
+            long roundSeed = random.nextLong();
+            int[] sampled = IntStream.range(0, movies.length).parallel()
+                    .filter(i -> !isCandidate[i] && SeedingUtils.uniform(roundSeed, i) < expected * weights[i] / psi)
+                    .toArray();
+            for (int i : sampled) {
+                isCandidate[i] = true;
+            }
+
+            List<EncodedClusterCenter> newCenters = Arrays.stream(sampled)
+                    .mapToObj(i -> SeedingUtils.getCenter(movies[i]))
+                    .collect(Collectors.toList());
+            IntStream.range(0, movies.length).parallel().forEach(i -> {
+                for (EncodedClusterCenter center : newCenters) {
+                    double distance = processor.distance(movies[i], center);
+                    weights[i] = Math.min(weights[i], distance * distance);
+                }
+            });
+
+            candidates = IntStream.concat(Arrays.stream(candidates), Arrays.stream(sampled)).toArray();
+        }
+
+        // too few candidates – the rest is added the k-means++ way
+        while (candidates.length < seedsCount) {
+            int next = SeedingUtils.sample(weights, isCandidate, random);
+            isCandidate[next] = true;
+            SeedingUtils.updateSquaredDistances(movies, movies[next], processor, weights);
+            candidates = Arrays.copyOf(candidates, candidates.length + 1);
+            candidates[candidates.length - 1] = next;
+        }
+
+        return reduce(movies, candidates, seedsCount, processor, random);
+    }
+
+    /**
+     * weighted k-means++ over the candidates, weight – number of movies for which the candidate is the nearest one
+     */
+    private int[] reduce(EncodedMovie[] movies, int[] candidates, int seedsCount, KMeansProcessor processor, Random random) {
+        if (candidates.length == seedsCount) {
+            return candidates;
+        }
+
+        EncodedClusterCenter[] centers = Arrays.stream(candidates)
+                .mapToObj(i -> SeedingUtils.getCenter(movies[i]))
+                .toArray(EncodedClusterCenter[]::new);
+        int[] nearest = IntStream.range(0, movies.length).parallel().map(i -> {
+            double minDistance = Double.POSITIVE_INFINITY;
+            int result = 0;
+            for (int c = 0; c < centers.length; c++) {
+                double distance = processor.distance(movies[i], centers[c]);
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    result = c;
+                }
+            }
+            return result;
+        }).toArray();
+
+        double[] counts = new double[candidates.length];
+        for (int c : nearest) {
+            counts[c]++;
+        }
+
+        EncodedMovie[] candidateMovies = Arrays.stream(candidates).mapToObj(i -> movies[i]).toArray(EncodedMovie[]::new);
+        boolean[] chosen = new boolean[candidates.length];
+        double[] distances = new double[candidates.length];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        double[] weights = counts.clone();
+        int[] seeds = new int[seedsCount];
+
+        int first = SeedingUtils.sample(weights, chosen, random);
+        chosen[first] = true;
+        seeds[0] = candidates[first];
+        for (int s = 1; s < seedsCount; s++) {
+            SeedingUtils.updateSquaredDistances(candidateMovies, movies[seeds[s - 1]], processor, distances);
+            for (int c = 0; c < candidates.length; c++) {
+                weights[c] = counts[c] * distances[c];
+            }
+            int next = SeedingUtils.sample(weights, chosen, random);
+            chosen[next] = true;
+            seeds[s] = candidates[next];
+        }
+
+        return seeds;
+    }
+}
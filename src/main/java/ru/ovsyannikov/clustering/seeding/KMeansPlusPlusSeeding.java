@@ -0,0 +1,42 @@
+package ru.ovsyannikov.clustering.seeding;
+
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * k-means++ seeding (Arthur, Vassilvitskii): the first center is random, every next one is a movie chosen
+ * with probability proportional to the squared distance to the nearest center already chosen.
+ * Takes O(n·k) distance calls.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/27/15
+ */
+public class KMeansPlusPlusSeeding implements SeedingStrategy {
+
+    @Override
+    public int[] selectSeeds(EncodedMovie[] movies, int numClusters, KMeansProcessor processor, Random random) {
+        int seedsCount = SeedingUtils.getSeedsCount(movies.length, numClusters);
+        int[] seeds = new int[seedsCount];
+        if (seedsCount == 0) {
+            return seeds;
+        }
+
+        boolean[] chosen = new boolean[movies.length];
+        // squared distance to the nearest chosen center
+        double[] weights = new double[movies.length];
+        Arrays.fill(weights, Double.POSITIVE_INFINITY);
+
+        seeds[0] = random.nextInt(movies.length);
+        chosen[seeds[0]] = true;
+        for (int s = 1; s < seedsCount; s++) {
+            SeedingUtils.updateSquaredDistances(movies, movies[seeds[s - 1]], processor, weights);
+            seeds[s] = SeedingUtils.sample(weights, chosen, random);
+            chosen[seeds[s]] = true;
+        }
+
+        return seeds;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.ovsyannikov.clustering.seeding;
+
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+
+import java.util.Random;
+
+/**
+ * Strategy of choosing initial centers for k-means.
+ * Distances are measured with {@link KMeansProcessor#distance(EncodedMovie, ru.ovsyannikov.clustering.model.EncodedClusterCenter)}
+ * to the center made of a single movie; strategies may use parallel streams, they are run on the processor's pool.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/27/15
+ */
+public interface SeedingStrategy {
+
+    /**
+     * @param movies – movies to be clustered
+     * @param numClusters – required number of clusters (at least one seed is returned for non-empty movies)
+     * @param processor – processor providing the distance
+     * @param random – source of randomness, the result is determined by its seed
+     * @return distinct indexes of movies to become initial centers
+     */
+    int[] selectSeeds(EncodedMovie[] movies, int numClusters, KMeansProcessor processor, Random random);
+}
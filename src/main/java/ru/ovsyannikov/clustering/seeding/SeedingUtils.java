@@ -0,0 +1,91 @@
+package ru.ovsyannikov.clustering.seeding;
+
+import ru.ovsyannikov.clustering.KMeansProcessor;
+import ru.ovsyannikov.clustering.model.EncodedClusterCenter;
+import ru.ovsyannikov.clustering.model.EncodedMovie;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * @author Georgii Ovsiannikov
+ * @since 5/27/15
+ */
+class SeedingUtils {
+
+    /**
+     * number of seeds to select: not more than movies and at least one
+     */
+    static int getSeedsCount(int moviesCount, int numClusters) {
+        return moviesCount == 0 ? 0 : Math.max(1, Math.min(numClusters, moviesCount));
+    }
+
+    static EncodedClusterCenter getCenter(EncodedMovie movie) {
+        return new EncodedClusterCenter(Collections.singletonList(movie));
+    }
+
+    /**
+     * weights[i] = min(weights[i], d(movies[i], seed)^2), computed in parallel
+     */
+    static void updateSquaredDistances(EncodedMovie[] movies, EncodedMovie seed, KMeansProcessor processor, double[] weights) {
+        EncodedClusterCenter center = getCenter(seed);
+        IntStream.range(0, movies.length).parallel().forEach(i -> {
+            double distance = processor.distance(movies[i], center);
+            weights[i] = Math.min(weights[i], distance * distance);
+        });
+    }
+
+    /**
+     * Picks an index with probability proportional to its weight; if all weights are zero –
+     * uniformly among indexes not yet chosen
+     */
+    static int sample(double[] weights, boolean[] chosen, Random random) {
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (!chosen[i]) {
+                total += weights[i];
+            }
+        }
+
+        if (total > 0 && !Double.isInfinite(total)) {
+            double target = random.nextDouble() * total;
+            int last = -1;
+            for (int i = 0; i < weights.length; i++) {
+                if (!chosen[i] && weights[i] > 0) {
+                    last = i;
+                    target -= weights[i];
+                    if (target < 0) {
+                        return i;
+                    }
+                }
+            }
+            return last;
+        }
+
+        int free = 0;
+        for (boolean c : chosen) {
+            free += c ? 0 : 1;
+        }
+        int target = random.nextInt(free);
+        for (int i = 0; i < chosen.length; i++) {
+            if (!chosen[i] && target-- == 0) {
+                return i;
+            }
+        }
+
+        throw new IllegalStateException("nothing to sample");
+    }
+
+    /**
+     * uniform value in [0, 1) depending only on the seed and the index (SplitMix64 finalizer),
+     * so sampling in parallel streams does not depend on the order of evaluation
+     */
+    static double uniform(long seed, int index) {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+}
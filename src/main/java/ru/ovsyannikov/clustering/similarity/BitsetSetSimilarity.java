@@ -0,0 +1,76 @@
+package ru.ovsyannikov.clustering.similarity;
+
+import ru.ovsyannikov.clustering.ComparisonUtils;
+
+/**
+ * Exact similarity over bitsets of value ids: the number of common values is the popcount of the intersection.
+ * A bitset covers only the words between the smallest and the largest id of the set, so it suits attributes
+ * with a small dictionary (genres) or sets of close ids. Sets wider than maxWords words and sets with duplicate values
+ * (the cosine multiplies duplicates, a bitset does not count them) are compared by a merge as {@link SetSimilarity#EXACT}.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/5/15
+ */
+public class BitsetSetSimilarity extends SketchSetSimilarity<BitsetSetSimilarity.Bitset> {
+
+    private static final Bitset NO_BITSET = new Bitset(0, new long[0]);
+
+    private final int maxWords;
+
+    public BitsetSetSimilarity() {
+        this(64);
+    }
+
+    /**
+     * @param maxWords – максимальное количество 64-битных слов в битовом множестве одного набора значений
+     */
+    public BitsetSetSimilarity(int maxWords) {
+        if (maxWords < 1) {
+            throw new IllegalArgumentException("at least one word is required!");
+        }
+        this.maxWords = maxWords;
+    }
+
+    @Override
+    protected Bitset sketch(int[] set) {
+        int firstWord = set[0] >>> 6;
+        int wordsCount = (set[set.length - 1] >>> 6) - firstWord + 1;
+        if (wordsCount > maxWords || getDistinctCount(set) != set.length) {
+            return NO_BITSET;
+        }
+
+        long[] words = new long[wordsCount];
+        for (int value : set) {
+            words[(value >>> 6) - firstWord] |= 1L << value;
+        }
+
+        return new Bitset(firstWord, words);
+    }
+
+    @Override
+    protected double getSimilarity(int[] set1, Bitset bitset1, int[] set2, Bitset bitset2) {
+        if (bitset1 == NO_BITSET || bitset2 == NO_BITSET) {
+            return ComparisonUtils.getSetsSimilarity(set1, set2);
+        }
+
+        int from = Math.max(bitset1.firstWord, bitset2.firstWord);
+        int to = Math.min(bitset1.firstWord + bitset1.words.length, bitset2.firstWord + bitset2.words.length);
+        int similar = 0;
+        for (int word = from; word < to; word++) {
+            similar += Long.bitCount(bitset1.words[word - bitset1.firstWord] & bitset2.words[word - bitset2.firstWord]);
+        }
+
+        return similar / Math.sqrt((double) set1.length * set2.length);
+    }
+
+    static class Bitset {
+
+        private final int firstWord;
+        private final long[] words;
+
+        Bitset(int firstWord, long[] words) {
+            this.firstWord = firstWord;
+            this.words = words;
+        }
+    }
+}
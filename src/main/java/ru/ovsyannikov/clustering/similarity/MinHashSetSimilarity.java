@@ -0,0 +1,128 @@
+package ru.ovsyannikov.clustering.similarity;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate similarity for long sets (keywords): every set is sketched by a MinHash signature of hashesCount values,
+ * the share of equal signature values estimates the Jaccard index J, and the number of common values is derived from it:
+ * |A ∩ B| = J (|A| + |B|) / (1 + J). Comparison costs O(hashesCount) regardless of the sizes of the sets.
+ * Duplicate values are counted once, unlike in the exact cosine.
+ * <p>
+ * Signatures are divided into bands (LSH): sets without a single equal band are taken as dissimilar (0)
+ * without comparing the signatures. With r = hashesCount / bandsCount rows per band, pairs with J ≈ (1 / bandsCount)^(1 / r)
+ * are found with probability 1 - 1/e, less similar pairs are mostly cut off; bandsCount = hashesCount (the default)
+ * disables the cut.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/5/15
+ */
+public class MinHashSetSimilarity extends SketchSetSimilarity<MinHashSetSimilarity.Signature> {
+
+    private final long[] seeds;
+    private final int bandsCount;
+    private final int rowsCount;
+
+    public MinHashSetSimilarity() {
+        this(64, 64, 1);
+    }
+
+    /**
+     * @param hashesCount – длина сигнатуры
+     * @param bandsCount – количество полос LSH, делит hashesCount
+     * @param seed – seed хеш-функций, сигнатуры сравнимы только при одинаковом seed
+     */
+    public MinHashSetSimilarity(int hashesCount, int bandsCount, long seed) {
+        if (hashesCount < 1 || bandsCount < 1 || hashesCount % bandsCount != 0) {
+            throw new IllegalArgumentException("number of bands must divide number of hashes!");
+        }
+
+        Random random = new Random(seed);
+        this.seeds = new long[hashesCount];
+        for (int i = 0; i < hashesCount; i++) {
+            seeds[i] = random.nextLong();
+        }
+        this.bandsCount = bandsCount;
+        this.rowsCount = hashesCount / bandsCount;
+    }
+
+    @Override
+    protected Signature sketch(int[] set) {
+        int[] minHashes = new int[seeds.length];
+        Arrays.fill(minHashes, Integer.MAX_VALUE);
+        for (int value : set) {
+            for (int i = 0; i < seeds.length; i++) {
+                minHashes[i] = Math.min(minHashes[i], hash(value, seeds[i]));
+            }
+        }
+
+        int[] bands = new int[bandsCount];
+        for (int band = 0; band < bandsCount; band++) {
+            int bandHash = 1;
+            for (int row = band * rowsCount; row < (band + 1) * rowsCount; row++) {
+                bandHash = 31 * bandHash + minHashes[row];
+            }
+            bands[band] = bandHash;
+        }
+
+        return new Signature(minHashes, bands, getDistinctCount(set));
+    }
+
+    @Override
+    protected double getSimilarity(int[] set1, Signature signature1, int[] set2, Signature signature2) {
+        if (!isCandidate(signature1, signature2)) {
+            return 0.0;
+        }
+
+        int equal = 0;
+        for (int i = 0; i < seeds.length; i++) {
+            if (signature1.minHashes[i] == signature2.minHashes[i]) {
+                equal++;
+            }
+        }
+
+        double jaccard = (double) equal / seeds.length;
+        double similar = jaccard * (signature1.distinctCount + signature2.distinctCount) / (1 + jaccard);
+        // the estimate can not exceed the smaller set
+        similar = Math.min(similar, Math.min(signature1.distinctCount, signature2.distinctCount));
+
+        return similar / Math.sqrt((double) set1.length * set2.length);
+    }
+
+    private boolean isCandidate(Signature signature1, Signature signature2) {
+        for (int band = 0; band < bandsCount; band++) {
+            if (signature1.bands[band] == signature2.bands[band]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 32 upper bits of the MurmurHash3 finalizer of the value mixed with the seed
+     */
+    private static int hash(int value, long seed) {
+        long h = value * 0x9E3779B97F4A7C15L + seed;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) (h >>> 32);
+    }
+
+    static class Signature {
+
+        private final int[] minHashes;
+        // hash of every band of minHashes
+        private final int[] bands;
+        private final int distinctCount;
+
+        Signature(int[] minHashes, int[] bands, int distinctCount) {
+            this.minHashes = minHashes;
+            this.bands = bands;
+            this.distinctCount = distinctCount;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ru.ovsyannikov.clustering.similarity;
+
+import ru.ovsyannikov.clustering.ComparisonUtils;
+
+/**
+ * Cosine similarity of attribute sets given as sorted arrays of value ids (see {@link ru.ovsyannikov.clustering.model.FeatureDictionary}).
+ * Null and empty sets are handled as in {@link ComparisonUtils#getSetsSimilarity}: two nulls are similar (1),
+ * a null or an empty set is not similar to anything else (0).
+ * Implementations are safe to call from several threads.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/5/15
+ */
+public interface SetSimilarity {
+
+    /**
+     * Exact similarity by a merge of the sorted arrays
+     */
+    SetSimilarity EXACT = ComparisonUtils::getSetsSimilarity;
+
+    double getSimilarity(int[] set1, int[] set2);
+}
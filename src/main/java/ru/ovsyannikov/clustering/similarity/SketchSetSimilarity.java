@@ -0,0 +1,58 @@
+package ru.ovsyannikov.clustering.similarity;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Similarity over sketches of the sets. A sketch is built once per array instance:
+ * {@link ru.ovsyannikov.clustering.model.FeatureDictionary} shares one array among all movies and centers with the same set,
+ * so every distinct set is sketched once. Sketches are kept while their arrays are reachable.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/5/15
+ */
+abstract class SketchSetSimilarity<S> implements SetSimilarity {
+
+    // weak keys are compared by identity, the content of the arrays is never hashed
+    private final LoadingCache<int[], S> sketches = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(this::sketch));
+
+    @Override
+    public double getSimilarity(int[] set1, int[] set2) {
+        if (set1 == null || set2 == null) {
+            return set1 == set2 ? 1.0 : 0.0;
+        }
+
+        if (set1.length == 0 || set2.length == 0) {
+            return 0.0;
+        }
+
+        return getSimilarity(set1, sketches.getUnchecked(set1), set2, sketches.getUnchecked(set2));
+    }
+
+    /**
+     * @param set – sorted non-empty set
+     */
+    protected abstract S sketch(int[] set);
+
+    /**
+     * @param set1, set2 – sorted non-empty sets with their sketches
+     */
+    protected abstract double getSimilarity(int[] set1, S sketch1, int[] set2, S sketch2);
+
+    /**
+     * @return number of distinct values of a sorted set
+     */
+    static int getDistinctCount(int[] set) {
+        int count = 0;
+        for (int i = 0; i < set.length; i++) {
+            if (i == 0 || set[i] != set[i - 1]) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
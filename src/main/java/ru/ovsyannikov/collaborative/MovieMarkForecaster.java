@@ -18,28 +18,44 @@ import java.util.stream.Collectors;
  */
 public class MovieMarkForecaster {
 
-    Map<Long, List<UserNeighboursProcessor.UserVote>> userVotes;
+    private final VoteMatrix voteMatrix;
 
     public MovieMarkForecaster(Map<Long, List<UserNeighboursProcessor.UserVote>> userVotes) {
-        this.userVotes = userVotes;
+        this(VoteMatrix.fromUserVotes(userVotes));
+    }
+
+    public MovieMarkForecaster(VoteMatrix voteMatrix) {
+        this.voteMatrix = voteMatrix;
     }
 
     public Map<Long, Double> forecastMarks(int howMany, Long userId, Map<Long, Double> neighbours) {
-        Set<Long> possibleMoviesToRecommend = new HashSet<>();
-        for (Long uId : userVotes.keySet()) {
-            possibleMoviesToRecommend.addAll(CollectKinopoiskIds(uId));
+        int itemsCount = voteMatrix.getItemsCount();
+        double[] preferences = new double[itemsCount];
+        double[] totalSimilarities = new double[itemsCount];
+        int[] counts = new int[itemsCount];
+        estimateMarks(userId, neighbours, preferences, totalSimilarities, counts);
+
+        // movies already rated by the user are not recommended
+        boolean[] rated = new boolean[itemsCount];
+        int userIndex = voteMatrix.getUserIndex(userId);
+        if (userIndex >= 0) {
+            for (int k = voteMatrix.getRowStart(userIndex); k < voteMatrix.getRowEnd(userIndex); k++) {
+                rated[voteMatrix.getRowItem(k)] = true;
+            }
         }
 
-        possibleMoviesToRecommend.removeAll(CollectKinopoiskIds(userId));
-
         Double lowestMark = Double.NEGATIVE_INFINITY;
         boolean full = false;
         Queue<RecommendedItem> itemsQueue = new PriorityQueue<>(howMany + 1, Collections.reverseOrder(new RecommendedItem.ItemsComparator()));
 
-        for (Long kinopoiskId : possibleMoviesToRecommend) {
-            Double estimatedMark = estimateMark(userId, kinopoiskId, neighbours);
+        for (int item = 0; item < itemsCount; item++) {
+            if (rated[item] || counts[item] <= 1) {
+                continue;
+            }
+
+            double estimatedMark = preferences[item] / totalSimilarities[item];
             if (!Double.isNaN(estimatedMark) && (!full || estimatedMark > lowestMark)) {
-                itemsQueue.add(new RecommendedItem(kinopoiskId, estimatedMark));
+                itemsQueue.add(new RecommendedItem(voteMatrix.getItemId(item), estimatedMark));
                 if (full) {
                     itemsQueue.poll();
                 } else if (itemsQueue.size() > howMany) {
@@ -60,60 +76,30 @@ public class MovieMarkForecaster {
     }
 
     /**
-     * Making forecast for the user's mark on movie with given kinopoiskId
+     * Making forecast for the user's marks on all movies at once: the rows of the neighbours are walked once
+     * and weighted votes are accumulated per column, the estimated mark is preferences[i] / totalSimilarities[i]
+     * (it makes sense only when counts[i] > 1)
      */
-    private Double estimateMark(Long userId, Long kinopoiskId, Map<Long, Double> neighbours) {
-        Double preference = 0.0;
-        Double totalSimilarity = 0.0;
-        int count = 0;
-
+    private void estimateMarks(Long userId, Map<Long, Double> neighbours,
+                               double[] preferences, double[] totalSimilarities, int[] counts) {
         for (Long uId : neighbours.keySet()) {
-            if (!Objects.equals(userId, uId)) {
-                Integer userVote = getUserVote(uId, kinopoiskId);
-                if (userVote != null) {
-                    double similarity = neighbours.get(uId);
-                    if (!Double.isNaN(similarity)) {
-                        preference += similarity * userVote;
-                        totalSimilarity += similarity;
-                        count++;
-                    }
-                }
+            if (Objects.equals(userId, uId)) {
+                continue;
             }
-        }
-
-        if (count <= 1) {
-            return Double.NaN;
-        }
-
-        return preference / totalSimilarity;
-    }
-
-    /**
-     * Get the vote of the given user to the movie with given kinopoiskId
-     */
-    private Integer getUserVote(Long userId, Long kinopoiskId) {
-        List<UserNeighboursProcessor.UserVote> targetMovie = userVotes.get(userId).stream()
-                .filter(u -> Objects.equals(u.getKinopoiskId(), kinopoiskId))
-                .collect(Collectors.toList());
-        if (targetMovie.isEmpty()) {
-            return null;
-        }
 
-        return targetMovie.get(0).getVote();
-    }
+            double similarity = neighbours.get(uId);
+            int neighbourIndex = voteMatrix.getUserIndex(uId);
+            if (Double.isNaN(similarity) || neighbourIndex < 0) {
+                continue;
+            }
 
-    /**
-     * Take all distinct kinopoiskIds of movies
-     */
-    private Set<Long> CollectKinopoiskIds(Long userId) {
-        List<UserNeighboursProcessor.UserVote> uVotes = userVotes.get(userId);
-        if (uVotes == null) {
-            return new HashSet<>();
+            for (int k = voteMatrix.getRowStart(neighbourIndex); k < voteMatrix.getRowEnd(neighbourIndex); k++) {
+                int item = voteMatrix.getRowItem(k);
+                preferences[item] += similarity * voteMatrix.getRowVote(k);
+                totalSimilarities[item] += similarity;
+                counts[item]++;
+            }
         }
-
-        return uVotes.stream()
-                .map(UserNeighboursProcessor.UserVote::getKinopoiskId)
-                .collect(Collectors.toSet());
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,88 @@
+package ru.ovsyannikov.collaborative;
+
+/**
+ * Pearson correlation between users over the rows of {@link VoteMatrix}.
+ * Rows are sorted by movie index, so co-rated movies are found with one merge pass over both rows
+ * (O(|u1| + |u2|) instead of the nested loop over vote lists), no objects are allocated on the way.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/24/15
+ */
+public class PearsonSimilarity {
+
+    private final VoteMatrix voteMatrix;
+
+    public PearsonSimilarity(VoteMatrix voteMatrix) {
+        this.voteMatrix = voteMatrix;
+    }
+
+    public double getUsersSimilarity(long user1Id, long user2Id) {
+        return getUsersSimilarity(voteMatrix.getUserIndex(user1Id), voteMatrix.getUserIndex(user2Id));
+    }
+
+    /**
+     * @param user1Index – row of the first user in the matrix (-1 if there is no such user)
+     * @param user2Index – row of the second user in the matrix (-1 if there is no such user)
+     * @return similarity in [-1, 1] or NaN, if users have no co-rated movies or one of them votes constantly
+     */
+    public double getUsersSimilarity(int user1Index, int user2Index) {
+        if (user1Index < 0 || user2Index < 0) {
+            return Double.NaN;
+        }
+
+        double sumXY = 0;
+        double sumX = 0;
+        double sumX2 = 0;
+        double sumY = 0;
+        double sumY2 = 0;
+        int count = 0;
+
+        int i = voteMatrix.getRowStart(user1Index);
+        int iEnd = voteMatrix.getRowEnd(user1Index);
+        int j = voteMatrix.getRowStart(user2Index);
+        int jEnd = voteMatrix.getRowEnd(user2Index);
+        while (i < iEnd && j < jEnd) {
+            int item1 = voteMatrix.getRowItem(i);
+            int item2 = voteMatrix.getRowItem(j);
+            if (item1 < item2) {
+                i++;
+            } else if (item1 > item2) {
+                j++;
+            } else {
+                int x = voteMatrix.getRowVote(i++);
+                int y = voteMatrix.getRowVote(j++);
+                sumXY += x * y;
+                sumX += x;
+                sumX2 += x * x;
+                sumY += y;
+                sumY2 += y * y;
+                count++;
+            }
+        }
+
+        return getPearsonResult(count, sumX, sumY, sumXY, sumX2, sumY2);
+    }
+
+    /**
+     * Pearson correlation from sufficient statistics of co-rated movies: the data is centered first
+     */
+    public static double getPearsonResult(int count, double sumX, double sumY, double sumXY, double sumX2, double sumY2) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        // center the data
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double centeredSumXY = sumXY - meanY * sumX;
+        double centeredSumX2 = sumX2 - meanX * sumX;
+        double centeredSumY2 = sumY2 - meanY * sumY;
+
+        double denominator = Math.sqrt(centeredSumX2) * Math.sqrt(centeredSumY2);
+        if (denominator == 0.0) {
+            return Double.NaN;
+        }
+
+        return centeredSumXY / denominator;
+    }
+}
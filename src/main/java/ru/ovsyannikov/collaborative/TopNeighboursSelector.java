@@ -0,0 +1,123 @@
+package ru.ovsyannikov.collaborative;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming selection of N users with the highest similarity.
+ * Keeps a primitive min-heap of size N (the worst of the best candidates is on top),
+ * so the whole similarity map is never built: O(U log N) time and O(N) memory.
+ * NaN similarities are skipped; on equal similarity the user with the smaller id wins, so the result is stable.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/24/15
+ */
+public class TopNeighboursSelector {
+
+    private final long[] userIds;
+    private final double[] similarities;
+    private int size;
+
+    public TopNeighboursSelector(int howMany) {
+        userIds = new long[Math.max(howMany, 0)];
+        similarities = new double[Math.max(howMany, 0)];
+    }
+
+    public void offer(long userId, double similarity) {
+        if (Double.isNaN(similarity) || userIds.length == 0) {
+            return;
+        }
+
+        if (size < userIds.length) {
+            userIds[size] = userId;
+            similarities[size] = similarity;
+            siftUp(size++);
+        } else if (isWorse(userIds[0], similarities[0], userId, similarity)) {
+            userIds[0] = userId;
+            similarities[0] = similarity;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return selected users (key – user id, value – similarity) ordered by descending similarity
+     */
+    public Map<Long, Double> getNeighbours() {
+        long[] ids = new long[size];
+        double[] values = new double[size];
+        // heap is copied aside and drained from the worst to the best
+        long[] heapIds = userIds.clone();
+        double[] heapValues = similarities.clone();
+        int heapSize = size;
+        for (int i = size - 1; i >= 0; i--) {
+            ids[i] = heapIds[0];
+            values[i] = heapValues[0];
+            heapSize--;
+            heapIds[0] = heapIds[heapSize];
+            heapValues[0] = heapValues[heapSize];
+            siftDown(heapIds, heapValues, heapSize, 0);
+        }
+
+        Map<Long, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            result.put(ids[i], values[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true, if the first candidate should be ranked lower than the second one
+     */
+    private static boolean isWorse(long id1, double similarity1, long id2, double similarity2) {
+        return similarity1 < similarity2 || (similarity1 == similarity2 && id1 > id2);
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!isWorse(userIds[position], similarities[position], userIds[parent], similarities[parent])) {
+                break;
+            }
+            swap(userIds, similarities, position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        siftDown(userIds, similarities, size, position);
+    }
+
+    private static void siftDown(long[] ids, double[] values, int heapSize, int position) {
+        while (true) {
+            int left = 2 * position + 1;
+            if (left >= heapSize) {
+                return;
+            }
+
+            int worst = left;
+            int right = left + 1;
+            if (right < heapSize && isWorse(ids[right], values[right], ids[left], values[left])) {
+                worst = right;
+            }
+            if (!isWorse(ids[worst], values[worst], ids[position], values[position])) {
+                return;
+            }
+            swap(ids, values, position, worst);
+            position = worst;
+        }
+    }
+
+    private static void swap(long[] ids, double[] values, int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
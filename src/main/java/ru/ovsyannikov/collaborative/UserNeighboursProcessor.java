@@ -6,7 +6,6 @@ import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * NOTE:
@@ -19,6 +18,8 @@ import java.util.stream.Collectors;
 public class UserNeighboursProcessor {
 
     private final Map<Long, List<UserVote>> votesByUser;
+    private final VoteMatrix voteMatrix;
+    private final PearsonSimilarity similarity;
 
     public UserNeighboursProcessor(String tableName, JdbcTemplate template) {
         List<UserVote> votes = template.query("select * from " + tableName, new BeanPropertyRowMapper<>(UserVote.class));
@@ -31,80 +32,53 @@ public class UserNeighboursProcessor {
             }
             userVotes.add(userVote);
         }
+        voteMatrix = VoteMatrix.fromUserVotes(votesByUser);
+        similarity = new PearsonSimilarity(voteMatrix);
     }
 
     public UserNeighboursProcessor(Map<Long, List<UserVote>> votesByUser) {
         this.votesByUser = votesByUser;
+        this.voteMatrix = VoteMatrix.fromUserVotes(votesByUser);
+        this.similarity = new PearsonSimilarity(voteMatrix);
     }
 
     /**
-     * Вычисляет N ближайших соседей данного пользователя
+     * Processor over already built matrix, {@link #getVotesByUser()} is not available in this case
      */
-    public Map<Long, Double> getUserNeighbours(long userId, int howMany) {
-        Map<Long, Double> result = new HashMap<>();
-        TreeMap<Long, Double> sorted = new TreeMap<>(new ValueComparator(result));
-        List<UserVote> targetUserVotes = votesByUser.get(userId);
-        votesByUser.keySet().stream()
-                .filter(uId -> !uId.equals(userId))
-                .forEach(uId -> result.put(uId, getUsersSimilarity(targetUserVotes, votesByUser.get(uId))));
-
-        sorted.putAll(result);
-        return sorted.keySet().stream().limit(howMany).collect(Collectors.toMap(k -> k, result::get));
+    public UserNeighboursProcessor(VoteMatrix voteMatrix) {
+        this.votesByUser = null;
+        this.voteMatrix = voteMatrix;
+        this.similarity = new PearsonSimilarity(voteMatrix);
     }
 
-    private Double getUsersSimilarity(List<UserVote> user1Votes, List<UserVote> user2Votes) {
-        if (user1Votes == null || user2Votes == null) {
-            return Double.NaN;
+    /**
+     * Вычисляет N ближайших соседей данного пользователя
+     * @return map: key – user_id соседа, value – похожесть; упорядочена по убыванию похожести, NaN не попадают
+     */
+    public Map<Long, Double> getUserNeighbours(long userId, int howMany) {
+        TopNeighboursSelector selector = new TopNeighboursSelector(howMany);
+        int targetIndex = voteMatrix.getUserIndex(userId);
+        if (targetIndex < 0) {
+            return selector.getNeighbours();
         }
 
-        double sumXY = 0;
-        double sumX = 0;
-        double sumX2 = 0;
-        double sumY = 0;
-        double sumY2 = 0;
-        int count = 0;
-
-        for (UserVote user1Vote : user1Votes) {
-            for (UserVote user2Vote : user2Votes) {
-                if (user1Vote.getKinopoiskId().equals(user2Vote.getKinopoiskId())) {
-                    int x = user1Vote.getVote();
-                    int y = user2Vote.getVote();
-                    sumXY += x * y;
-                    sumX += x;
-                    sumX2 += x * x;
-                    sumY += y;
-                    sumY2 += y * y;
-                    count++;
-                }
+        for (int user = 0; user < voteMatrix.getUsersCount(); user++) {
+            if (user != targetIndex) {
+                selector.offer(voteMatrix.getUserId(user), similarity.getUsersSimilarity(targetIndex, user));
             }
         }
-        // center the data
-        double meanX = sumX / count;
-        double meanY = sumY / count;
-        double centeredSumXY = sumXY - meanY * sumX;
-        double centeredSumX2 = sumX2 - meanX * sumX;
-        double centeredSumY2 = sumY2 - meanY * sumY;
-
-        return getPearsonResult(count, centeredSumXY, centeredSumX2, centeredSumY2);
-    }
-
-    private Double getPearsonResult(int count, double sumXY, double sumX2, double sumY2) {
-        if (count == 0) {
-            return Double.NaN;
-        }
 
-        double denominator = Math.sqrt(sumX2) * Math.sqrt(sumY2);
-        if (denominator == 0.0) {
-            return Double.NaN;
-        }
-
-        return sumXY / denominator;
+        return selector.getNeighbours();
     }
 
     public Map<Long, List<UserVote>> getVotesByUser() {
         return votesByUser;
     }
 
+    public VoteMatrix getVoteMatrix() {
+        return voteMatrix;
+    }
+
     public static class UserVote {
 
         Long userId;
@@ -144,31 +118,4 @@ public class UserNeighboursProcessor {
             this.vote = vote;
         }
     }
-
-    // Comparator for descending sort
-    public static class ValueComparator implements Comparator<Long> {
-
-        Map<Long, Double> base;
-
-        public ValueComparator(Map<Long, Double> base) {
-            this.base = base;
-        }
-
-        public int compare(Long a, Long b) {
-            Double value1 = base.get(a);
-            Double value2 = base.get(b);
-            if (Double.isNaN(value1)) {
-                return 1;
-            }
-            if (Double.isNaN(value2)) {
-                return -1;
-            }
-
-            if (value1 >= value2) {
-                return -1;
-            } else {
-                return 1;
-            }
-        }
-    }
 }
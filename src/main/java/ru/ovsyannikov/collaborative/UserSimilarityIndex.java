@@ -0,0 +1,228 @@
+package ru.ovsyannikov.collaborative;
+
+import ru.ovsyannikov.MovieStorageHelper;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Long-living index of user-user similarities.
+ * For every pair of users with co-rated movies the sufficient statistics of Pearson correlation are kept
+ * (count, sumX, sumY, sumXY, sumX2, sumY2), so the similarity is read instead of being recomputed.
+ * A changed vote updates only pairs of the user with other raters of the same movie – O(raters of the movie).
+ * Register it with {@link MovieStorageHelper#addVoteListener} to follow the votes being saved.
+ * The statistics are sums over movies, so indexes over disjoint sets of movies (e.g. clusters) are combined
+ * by {@link #getUserNeighbours(long, int, Collection)} into neighbours over the union of the sets.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/25/15
+ */
+public class UserSimilarityIndex implements MovieStorageHelper.VoteListener {
+
+    // kinopoisk_id -> (user_id -> vote)
+    private final Map<Long, Map<Long, Integer>> votesByMovie = new HashMap<>();
+    // user_id -> (user_id -> statistics), the same object is stored for both users of the pair
+    private final Map<Long, Map<Long, CoRatingStatistics>> statistics = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public UserSimilarityIndex(VoteMatrix voteMatrix) {
+        for (int item = 0; item < voteMatrix.getItemsCount(); item++) {
+            int start = voteMatrix.getColumnStart(item);
+            int end = voteMatrix.getColumnEnd(item);
+            Map<Long, Integer> raters = new HashMap<>();
+            votesByMovie.put(voteMatrix.getItemId(item), raters);
+            for (int i = start; i < end; i++) {
+                long user1Id = voteMatrix.getUserId(voteMatrix.getColumnUser(i));
+                int x = voteMatrix.getColumnVote(i);
+                raters.put(user1Id, x);
+                // users inside a column are sorted, so user1Id is always the smaller id of the pair
+                for (int j = i + 1; j < end; j++) {
+                    long user2Id = voteMatrix.getUserId(voteMatrix.getColumnUser(j));
+                    getOrCreateStatistics(user1Id, user2Id).add(x, voteMatrix.getColumnVote(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Pearson correlation of the users or NaN (see {@link PearsonSimilarity#getPearsonResult})
+     */
+    public double getUsersSimilarity(long user1Id, long user2Id) {
+        lock.readLock().lock();
+        try {
+            Map<Long, CoRatingStatistics> userStatistics = statistics.get(user1Id);
+            CoRatingStatistics pair = userStatistics == null ? null : userStatistics.get(user2Id);
+            return pair == null ? Double.NaN : pair.getSimilarity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Вычисляет N ближайших соседей пользователя по готовым статистикам
+     * @return map: key – user_id соседа, value – похожесть; упорядочена по убыванию похожести
+     */
+    public Map<Long, Double> getUserNeighbours(long userId, int howMany) {
+        TopNeighboursSelector selector = new TopNeighboursSelector(howMany);
+        lock.readLock().lock();
+        try {
+            Map<Long, CoRatingStatistics> userStatistics = statistics.get(userId);
+            if (userStatistics != null) {
+                userStatistics.forEach((uId, pair) -> selector.offer(uId, pair.getSimilarity()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return selector.getNeighbours();
+    }
+
+    /**
+     * Вычисляет N ближайших соседей пользователя по фильмам нескольких индексов, множества фильмов которых не пересекаются:
+     * статистики пар складываются, результат тот же, что у индекса по объединению фильмов
+     * @return map: key – user_id соседа, value – похожесть; упорядочена по убыванию похожести
+     */
+    public static Map<Long, Double> getUserNeighbours(long userId, int howMany, Collection<UserSimilarityIndex> indexes) {
+        Map<Long, CoRatingStatistics> combined = new HashMap<>();
+        for (UserSimilarityIndex index : indexes) {
+            index.lock.readLock().lock();
+            try {
+                Map<Long, CoRatingStatistics> userStatistics = index.statistics.get(userId);
+                if (userStatistics != null) {
+                    userStatistics.forEach((uId, pair) ->
+                            combined.computeIfAbsent(uId, k -> new CoRatingStatistics(pair.xUserId)).addAll(pair));
+                }
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        }
+
+        TopNeighboursSelector selector = new TopNeighboursSelector(howMany);
+        combined.forEach((uId, pair) -> selector.offer(uId, pair.getSimilarity()));
+        return selector.getNeighbours();
+    }
+
+    @Override
+    public void onVoteSet(Long userId, Long kinopoiskId, Integer vote) {
+        lock.writeLock().lock();
+        try {
+            Map<Long, Integer> raters = votesByMovie.computeIfAbsent(kinopoiskId, k -> new HashMap<>());
+            Integer previousVote = raters.put(userId, vote);
+            for (Map.Entry<Long, Integer> rater : raters.entrySet()) {
+                if (rater.getKey().equals(userId)) {
+                    continue;
+                }
+
+                CoRatingStatistics pair = getOrCreateStatistics(userId, rater.getKey());
+                if (previousVote != null) {
+                    pair.remove(userId, previousVote, rater.getValue());
+                }
+                pair.add(userId, vote, rater.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onVoteDeleted(Long userId, Long kinopoiskId) {
+        lock.writeLock().lock();
+        try {
+            Map<Long, Integer> raters = votesByMovie.get(kinopoiskId);
+            Integer previousVote = raters == null ? null : raters.remove(userId);
+            if (previousVote == null) {
+                return;
+            }
+
+            for (Map.Entry<Long, Integer> rater : raters.entrySet()) {
+                CoRatingStatistics pair = statistics.get(userId).get(rater.getKey());
+                pair.remove(userId, previousVote, rater.getValue());
+                if (pair.count == 0) {
+                    statistics.get(userId).remove(rater.getKey());
+                    statistics.get(rater.getKey()).remove(userId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private CoRatingStatistics getOrCreateStatistics(long user1Id, long user2Id) {
+        Map<Long, CoRatingStatistics> user1Statistics = statistics.computeIfAbsent(user1Id, k -> new HashMap<>());
+        CoRatingStatistics pair = user1Statistics.get(user2Id);
+        if (pair == null) {
+            pair = new CoRatingStatistics(Math.min(user1Id, user2Id));
+            user1Statistics.put(user2Id, pair);
+            statistics.computeIfAbsent(user2Id, k -> new HashMap<>()).put(user1Id, pair);
+        }
+
+        return pair;
+    }
+
+    /**
+     * Sufficient statistics over movies co-rated by two users; X – votes of the user with the smaller id
+     */
+    public static class CoRatingStatistics {
+
+        private final long xUserId;
+        int count;
+        double sumX;
+        double sumY;
+        double sumXY;
+        double sumX2;
+        double sumY2;
+
+        CoRatingStatistics(long xUserId) {
+            this.xUserId = xUserId;
+        }
+
+        void add(long userId, int userVote, int otherVote) {
+            if (userId == xUserId) {
+                add(userVote, otherVote);
+            } else {
+                add(otherVote, userVote);
+            }
+        }
+
+        void remove(long userId, int userVote, int otherVote) {
+            if (userId == xUserId) {
+                update(userVote, otherVote, -1);
+            } else {
+                update(otherVote, userVote, -1);
+            }
+        }
+
+        void add(int x, int y) {
+            update(x, y, 1);
+        }
+
+        void addAll(CoRatingStatistics other) {
+            count += other.count;
+            sumX += other.sumX;
+            sumY += other.sumY;
+            sumXY += other.sumXY;
+            sumX2 += other.sumX2;
+            sumY2 += other.sumY2;
+        }
+
+        private void update(int x, int y, int sign) {
+            count += sign;
+            sumX += sign * x;
+            sumY += sign * y;
+            sumXY += sign * x * y;
+            sumX2 += sign * x * x;
+            sumY2 += sign * y * y;
+        }
+
+        public double getSimilarity() {
+            return PearsonSimilarity.getPearsonResult(count, sumX, sumY, sumXY, sumX2, sumY2);
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
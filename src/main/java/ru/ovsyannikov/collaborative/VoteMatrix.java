@@ -0,0 +1,208 @@
+package ru.ovsyannikov.collaborative;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact immutable user-item matrix of votes.
+ * Votes are stored twice: row-wise by user (CSR) and column-wise by movie (CSC),
+ * users and movies are addressed by indexes into sorted arrays of their ids.
+ * Within a row items are sorted by index, within a column – users are.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 5/24/15
+ */
+public class VoteMatrix {
+
+    public static final int NO_VOTE = -1;
+
+    // sorted user ids, index in this array is the row number
+    private final long[] userIds;
+    private final int[] rowOffsets;
+    private final int[] rowItems;
+    private final byte[] rowVotes;
+
+    // sorted kinopoisk ids, index in this array is the column number
+    private final long[] itemIds;
+    private final int[] columnOffsets;
+    private final int[] columnUsers;
+    private final byte[] columnVotes;
+
+    private VoteMatrix(long[] userIds, int[] rowOffsets, int[] rowItems, byte[] rowVotes, long[] itemIds) {
+        this.userIds = userIds;
+        this.rowOffsets = rowOffsets;
+        this.rowItems = rowItems;
+        this.rowVotes = rowVotes;
+        this.itemIds = itemIds;
+
+        // transposing CSR into CSC with counting sort, users inside a column stay sorted
+        columnOffsets = new int[itemIds.length + 1];
+        for (int item : rowItems) {
+            columnOffsets[item + 1]++;
+        }
+        for (int i = 0; i < itemIds.length; i++) {
+            columnOffsets[i + 1] += columnOffsets[i];
+        }
+
+        columnUsers = new int[rowItems.length];
+        columnVotes = new byte[rowItems.length];
+        int[] position = Arrays.copyOf(columnOffsets, itemIds.length);
+        for (int user = 0; user < userIds.length; user++) {
+            for (int k = rowOffsets[user]; k < rowOffsets[user + 1]; k++) {
+                int p = position[rowItems[k]]++;
+                columnUsers[p] = user;
+                columnVotes[p] = rowVotes[k];
+            }
+        }
+    }
+
+    /**
+     * Builds the matrix from the votes grouped by user.
+     * Users with empty lists are kept as empty rows; if a user voted for the same movie twice, the first vote wins
+     * (the same way {@link MovieMarkForecaster} used to pick it from the list)
+     */
+    public static VoteMatrix fromUserVotes(Map<Long, List<UserNeighboursProcessor.UserVote>> votesByUser) {
+        long[] userIds = votesByUser.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        long[] itemIds = votesByUser.values().stream()
+                .filter(votes -> votes != null)
+                .flatMap(List::stream)
+                .filter(uv -> uv.getKinopoiskId() != null && uv.getVote() != null)
+                .mapToLong(UserNeighboursProcessor.UserVote::getKinopoiskId)
+                .distinct()
+                .sorted()
+                .toArray();
+
+        int[] rowOffsets = new int[userIds.length + 1];
+        int[] rowItems = new int[16];
+        byte[] rowVotes = new byte[16];
+        int size = 0;
+        for (int user = 0; user < userIds.length; user++) {
+            List<UserNeighboursProcessor.UserVote> votes = votesByUser.get(userIds[user]);
+            int count = votes == null ? 0 : votes.size();
+            // (item index << 32 | position in list) – sorting keeps the first vote of duplicates in front
+            long[] keys = new long[count];
+            int valid = 0;
+            for (int i = 0; i < count; i++) {
+                UserNeighboursProcessor.UserVote uv = votes.get(i);
+                if (uv.getKinopoiskId() != null && uv.getVote() != null) {
+                    keys[valid++] = ((long) Arrays.binarySearch(itemIds, uv.getKinopoiskId()) << 32) | i;
+                }
+            }
+            Arrays.sort(keys, 0, valid);
+
+            if (size + valid > rowItems.length) {
+                int capacity = Math.max(rowItems.length * 2, size + valid);
+                rowItems = Arrays.copyOf(rowItems, capacity);
+                rowVotes = Arrays.copyOf(rowVotes, capacity);
+            }
+
+            int previousItem = -1;
+            for (int i = 0; i < valid; i++) {
+                int item = (int) (keys[i] >>> 32);
+                if (item != previousItem) {
+                    rowItems[size] = item;
+                    rowVotes[size] = votes.get((int) keys[i]).getVote().byteValue();
+                    size++;
+                    previousItem = item;
+                }
+            }
+            rowOffsets[user + 1] = size;
+        }
+
+        return new VoteMatrix(userIds, rowOffsets, Arrays.copyOf(rowItems, size), Arrays.copyOf(rowVotes, size), itemIds);
+    }
+
+    /**
+     * @return row number of the user or -1, if the user has no row
+     */
+    public int getUserIndex(long userId) {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return column number of the movie or -1, if nobody voted for it
+     */
+    public int getItemIndex(long kinopoiskId) {
+        int index = Arrays.binarySearch(itemIds, kinopoiskId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return vote of the user for the movie or {@link #NO_VOTE}
+     */
+    public int getVote(long userId, long kinopoiskId) {
+        int user = getUserIndex(userId);
+        int item = getItemIndex(kinopoiskId);
+        if (user < 0 || item < 0) {
+            return NO_VOTE;
+        }
+
+        return getVoteByIndex(user, item);
+    }
+
+    /**
+     * Binary search of the column number inside the row of the user
+     */
+    public int getVoteByIndex(int userIndex, int itemIndex) {
+        int position = Arrays.binarySearch(rowItems, rowOffsets[userIndex], rowOffsets[userIndex + 1], itemIndex);
+        return position < 0 ? NO_VOTE : rowVotes[position];
+    }
+
+    public int getUsersCount() {
+        return userIds.length;
+    }
+
+    public int getItemsCount() {
+        return itemIds.length;
+    }
+
+    public int getVotesCount() {
+        return rowItems.length;
+    }
+
+    public long getUserId(int userIndex) {
+        return userIds[userIndex];
+    }
+
+    public long getItemId(int itemIndex) {
+        return itemIds[itemIndex];
+    }
+
+    // row access: positions from getRowStart (inclusive) to getRowEnd (exclusive)
+
+    public int getRowStart(int userIndex) {
+        return rowOffsets[userIndex];
+    }
+
+    public int getRowEnd(int userIndex) {
+        return rowOffsets[userIndex + 1];
+    }
+
+    public int getRowItem(int position) {
+        return rowItems[position];
+    }
+
+    public int getRowVote(int position) {
+        return rowVotes[position];
+    }
+
+    // column access: positions from getColumnStart (inclusive) to getColumnEnd (exclusive)
+
+    public int getColumnStart(int itemIndex) {
+        return columnOffsets[itemIndex];
+    }
+
+    public int getColumnEnd(int itemIndex) {
+        return columnOffsets[itemIndex + 1];
+    }
+
+    public int getColumnUser(int position) {
+        return columnUsers[position];
+    }
+
+    public int getColumnVote(int position) {
+        return columnVotes[position];
+    }
+}
@@ -0,0 +1,164 @@
+package ru.ovsyannikov.elicitation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Decision tree for adaptive elicitation of preferences, grown offline by {@link ElicitationTreeBuilder}.
+ * Every node is a question – a movie (kinopoisk_id) to rate; its children are the next questions
+ * for users who liked the movie, hated it or have not seen it (see {@link Answer}).
+ * Nodes are kept in flat arrays, so the next question is found in O(1) regardless of the catalog size.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/2/15
+ */
+public class ElicitationTree {
+
+    public static final int NO_NODE = -1;
+
+    private static final int MAGIC = 0x54524545; // "TREE"
+    private static final int VERSION = 1;
+
+    /**
+     * Answer of a user to a question, ordinal is the index of the child
+     */
+    public enum Answer {
+        LIKED, HATED, UNKNOWN;
+
+        /**
+         * @param vote – оценка пользователя, null если фильм не смотрел
+         */
+        public static Answer fromVote(Integer vote) {
+            if (vote == null) {
+                return UNKNOWN;
+            }
+
+            return vote > SplitterDeterminant.LIKE_THRESHOLD ? LIKED : HATED;
+        }
+    }
+
+    // node -> kinopoisk_id of the movie to ask about
+    private final long[] movies;
+    // 3 * node + answer -> child node or NO_NODE
+    private final int[] children;
+
+    /**
+     * @param movies – kinopoisk_id of the question of every node, node 0 is the root
+     * @param children – children of node i are in [3 * i, 3 * i + 3) in the order of {@link Answer}
+     */
+    public ElicitationTree(long[] movies, int[] children) {
+        if (children.length != movies.length * Answer.values().length) {
+            throw new IllegalArgumentException("unequal lengths of nodes arrays!");
+        }
+
+        this.movies = movies;
+        this.children = children;
+    }
+
+    /**
+     * @return the first question or NO_NODE for an empty tree
+     */
+    public int getRoot() {
+        return movies.length == 0 ? NO_NODE : 0;
+    }
+
+    public long getMovie(int node) {
+        return movies[node];
+    }
+
+    /**
+     * @return the next question after the answer or NO_NODE if the elicitation is over
+     */
+    public int getNext(int node, Answer answer) {
+        return children[node * Answer.values().length + answer.ordinal()];
+    }
+
+    public int getNodesCount() {
+        return movies.length;
+    }
+
+    public Navigator navigator() {
+        return new Navigator(this);
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(movies.length);
+            for (long movie : movies) {
+                out.writeLong(movie);
+            }
+            for (int child : children) {
+                out.writeInt(child);
+            }
+        }
+    }
+
+    public static ElicitationTree read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an elicitation tree file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported version " + version + " of " + file);
+            }
+
+            long[] movies = new long[in.readInt()];
+            for (int i = 0; i < movies.length; i++) {
+                movies[i] = in.readLong();
+            }
+            int[] children = new int[movies.length * Answer.values().length];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = in.readInt();
+            }
+
+            return new ElicitationTree(movies, children);
+        }
+    }
+
+    /**
+     * Position of one user in the tree – one instance per elicitation session, not thread-safe
+     */
+    public static class Navigator {
+
+        private final ElicitationTree tree;
+        private int node;
+
+        Navigator(ElicitationTree tree) {
+            this.tree = tree;
+            this.node = tree.getRoot();
+        }
+
+        /**
+         * @return kinopoisk_id of the movie to ask about, null if the elicitation is over
+         */
+        public Long getMovie() {
+            return node == NO_NODE ? null : tree.getMovie(node);
+        }
+
+        /**
+         * Moves to the next question
+         * @param vote – оценка текущего фильма, null если пользователь его не смотрел
+         * @return kinopoisk_id of the next movie to ask about, null if the elicitation is over
+         */
+        public Long answer(Integer vote) {
+            if (node != NO_NODE) {
+                node = tree.getNext(node, Answer.fromVote(vote));
+            }
+
+            return getMovie();
+        }
+
+        public int getNode() {
+            return node;
+        }
+    }
+}
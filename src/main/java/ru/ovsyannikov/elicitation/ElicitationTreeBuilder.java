@@ -0,0 +1,228 @@
+package ru.ovsyannikov.elicitation;
+
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Offline builder of {@link ElicitationTree}: the root question is the splitter of {@link SplitterDeterminant}
+ * over all votes, then users are divided by their answer (liked / hated / unknown) and every group gets
+ * its own splitter over its votes, recursively up to the given depth.
+ * A movie is asked at most once on a path.
+ * Votes are packed once; a node keeps only the bitset of its users (dense indexes of {@link PackedVotes})
+ * and the bitset of movies asked on its path, children get subsets of the parent's users.
+ * Sibling subtrees grow concurrently on a fork-join pool: an own one, shut down by {@link #close},
+ * or an externally owned one, which the builder never shuts down.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/2/15
+ */
+public class ElicitationTreeBuilder implements AutoCloseable {
+
+    private final SplitterDeterminant splitterDeterminant = new SplitterDeterminant();
+    private final int maxDepth;
+    private final int minUsers;
+    // пул для роста поддеревьев, один на все построения
+    private final ForkJoinPool pool;
+    private final boolean ownPool;
+
+    /**
+     * @param maxDepth – максимальное количество вопросов пользователю
+     * @param minUsers – минимальное количество пользователей в узле, для которых ещё выбирается вопрос
+     */
+    public ElicitationTreeBuilder(int maxDepth, int minUsers) {
+        this(maxDepth, minUsers, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism – количество потоков для роста поддеревьев
+     */
+    public ElicitationTreeBuilder(int maxDepth, int minUsers, int parallelism) {
+        this(maxDepth, minUsers, new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * @param pool – пул для роста поддеревьев, принадлежит вызывающему и не останавливается builder'ом
+     */
+    public ElicitationTreeBuilder(int maxDepth, int minUsers, ForkJoinPool pool) {
+        this(maxDepth, minUsers, pool, false);
+    }
+
+    private ElicitationTreeBuilder(int maxDepth, int minUsers, ForkJoinPool pool, boolean ownPool) {
+        this.maxDepth = maxDepth;
+        this.minUsers = Math.max(1, minUsers);
+        this.pool = pool;
+        this.ownPool = ownPool;
+    }
+
+    /**
+     * @param movies – фильмы с оценками пользователей
+     */
+    public ElicitationTree build(List<Movie> movies) {
+        return build(PackedVotes.fromMovies(movies), movies.stream().mapToLong(Movie::getKinopoiskId).toArray());
+    }
+
+    /**
+     * @param votes – оценки фильмов, пользователи нумеруются здесь, если не пронумерованы
+     * @param kinopoiskIds – kinopoisk_id фильмов в порядке votes
+     */
+    public ElicitationTree build(PackedVotes votes, long[] kinopoiskIds) {
+        PackedVotes indexedVotes = votes.withUserIndexes();
+        BitSet users = new BitSet(indexedVotes.getUsersCount());
+        users.set(0, indexedVotes.getUsersCount());
+
+        Node root = null;
+        if (maxDepth > 0 && indexedVotes.getUsersCount() >= minUsers) {
+            root = pool.invoke(new GrowTask(indexedVotes, kinopoiskIds, users, new BitSet(indexedVotes.getMoviesCount()), 0));
+        }
+
+        Nodes nodes = new Nodes();
+        if (root != null) {
+            nodes.add(root);
+        }
+
+        return nodes.toTree();
+    }
+
+    /**
+     * Shuts down the own pool; an external pool is left to its owner
+     */
+    @Override
+    public void close() {
+        if (ownPool) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Grows the subtree of a node
+     */
+    private class GrowTask extends RecursiveTask<Node> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PackedVotes votes;
+        private final long[] kinopoiskIds;
+        private final BitSet users;
+        private final BitSet asked;
+        private final int depth;
+
+        /**
+         * @param users – users of the node
+         * @param asked – movies asked on the path to the node
+         */
+        GrowTask(PackedVotes votes, long[] kinopoiskIds, BitSet users, BitSet asked, int depth) {
+            this.votes = votes;
+            this.kinopoiskIds = kinopoiskIds;
+            this.users = users;
+            this.asked = asked;
+            this.depth = depth;
+        }
+
+        /**
+         * @return the node or null if the users have no votes for movies not asked yet
+         */
+        @Override
+        protected Node compute() {
+            int splitter = splitterDeterminant.getSplitter(votes, users, asked);
+            if (splitter < 0) {
+                return null;
+            }
+
+            Node node = new Node(kinopoiskIds[splitter]);
+            if (depth + 1 >= maxDepth) {
+                return node;
+            }
+
+            BitSet childAsked = (BitSet) asked.clone();
+            childAsked.set(splitter);
+            BitSet[] partitions = partition(splitter);
+            List<GrowTask> tasks = new ArrayList<>();
+            for (ElicitationTree.Answer answer : ElicitationTree.Answer.values()) {
+                BitSet childUsers = partitions[answer.ordinal()];
+                tasks.add(childUsers.cardinality() >= minUsers ?
+                        new GrowTask(votes, kinopoiskIds, childUsers, childAsked, depth + 1) : null);
+            }
+
+            ForkJoinTask.invokeAll(tasks.stream().filter(task -> task != null).toArray(GrowTask[]::new));
+            for (int answer = 0; answer < tasks.size(); answer++) {
+                node.children[answer] = tasks.get(answer) == null ? null : tasks.get(answer).join();
+            }
+
+            return node;
+        }
+
+        /**
+         * @return users of the node by their answer to the movie, in the order of {@link ElicitationTree.Answer}
+         */
+        private BitSet[] partition(int movie) {
+            BitSet liked = new BitSet(votes.getUsersCount());
+            BitSet hated = new BitSet(votes.getUsersCount());
+            for (int i = votes.getStart(movie); i < votes.getEnd(movie); i++) {
+                int user = votes.getUserIndex(i);
+                if (!users.get(user)) {
+                    continue;
+                }
+
+                if (ElicitationTree.Answer.fromVote(votes.getVote(i)) == ElicitationTree.Answer.LIKED) {
+                    liked.set(user);
+                } else {
+                    hated.set(user);
+                }
+            }
+
+            BitSet unknown = (BitSet) users.clone();
+            unknown.andNot(liked);
+            unknown.andNot(hated);
+
+            return new BitSet[]{liked, hated, unknown};
+        }
+    }
+
+    private static class Node {
+
+        private final long movie;
+        private final Node[] children = new Node[ElicitationTree.Answer.values().length];
+
+        Node(long movie) {
+            this.movie = movie;
+        }
+    }
+
+    /**
+     * Growing arrays of nodes, numbered in pre-order (a node, then subtrees of liked, hated, unknown)
+     */
+    private static class Nodes {
+
+        private long[] movies = new long[16];
+        private int[] children = new int[16 * ElicitationTree.Answer.values().length];
+        private int size;
+
+        int add(Node node) {
+            if (size == movies.length) {
+                movies = Arrays.copyOf(movies, size * 2);
+                children = Arrays.copyOf(children, size * 2 * ElicitationTree.Answer.values().length);
+            }
+            int index = size++;
+            movies[index] = node.movie;
+            for (int answer = 0; answer < node.children.length; answer++) {
+                // the child index is known only after the preceding siblings are numbered
+                int child = node.children[answer] == null ? ElicitationTree.NO_NODE : add(node.children[answer]);
+                children[index * ElicitationTree.Answer.values().length + answer] = child;
+            }
+
+            return index;
+        }
+
+        ElicitationTree toTree() {
+            return new ElicitationTree(Arrays.copyOf(movies, size),
+                    Arrays.copyOf(children, size * ElicitationTree.Answer.values().length));
+        }
+    }
+}
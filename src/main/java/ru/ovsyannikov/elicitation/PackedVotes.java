@@ -0,0 +1,127 @@
+package ru.ovsyannikov.elicitation;
+
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Votes of movies packed into primitive arrays: votes of the m-th movie are in [getStart(m), getEnd(m)).
+ * Votes {@link #withUserIndexes} also number users densely (0..getUsersCount()-1 in order of user_id), so sets of users
+ * can be bitsets; the numbering sorts all users, so it is built only for those who need it (e.g. {@link ElicitationTreeBuilder}),
+ * not for a single splitter of the interactive elicitation.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/1/15
+ */
+public class PackedVotes {
+
+    private final int[] starts;
+    private final long[] users;
+    private final int[] votes;
+    // sorted distinct user_id and dense index of the user of every vote, null without the numbering
+    private final long[] userIds;
+    private final int[] userIndexes;
+
+    /**
+     * Votes without the numbering of users
+     */
+    public PackedVotes(int[] starts, long[] users, int[] votes) {
+        this(starts, users, votes, null, null);
+    }
+
+    private PackedVotes(int[] starts, long[] users, int[] votes, long[] userIds, int[] userIndexes) {
+        this.starts = starts;
+        this.users = users;
+        this.votes = votes;
+        this.userIds = userIds;
+        this.userIndexes = userIndexes;
+    }
+
+    /**
+     * @return the same votes (the arrays are shared) with the users numbered densely
+     */
+    public PackedVotes withUserIndexes() {
+        if (hasUserIndexes()) {
+            return this;
+        }
+
+        long[] ids = Arrays.stream(users).sorted().distinct().toArray();
+        int[] indexes = new int[users.length];
+        for (int i = 0; i < users.length; i++) {
+            indexes[i] = Arrays.binarySearch(ids, users[i]);
+        }
+
+        return new PackedVotes(starts, users, votes, ids, indexes);
+    }
+
+    public boolean hasUserIndexes() {
+        return userIndexes != null;
+    }
+
+    public static PackedVotes fromMovies(List<Movie> movies) {
+        int[] starts = new int[movies.size() + 1];
+        for (int m = 0; m < movies.size(); m++) {
+            starts[m + 1] = starts[m] + movies.get(m).getVotes().size();
+        }
+
+        long[] users = new long[starts[movies.size()]];
+        int[] votes = new int[starts[movies.size()]];
+        for (int m = 0; m < movies.size(); m++) {
+            int i = starts[m];
+            for (Movie.UserVote vote : movies.get(m).getVotes()) {
+                users[i] = vote.getUserId();
+                votes[i++] = vote.getVote();
+            }
+        }
+
+        return new PackedVotes(starts, users, votes);
+    }
+
+    public int getMoviesCount() {
+        return starts.length - 1;
+    }
+
+    public int getVotesCount() {
+        return votes.length;
+    }
+
+    public int getStart(int movie) {
+        return starts[movie];
+    }
+
+    public int getEnd(int movie) {
+        return starts[movie + 1];
+    }
+
+    public long getUser(int i) {
+        return users[i];
+    }
+
+    public int getVote(int i) {
+        return votes[i];
+    }
+
+    /**
+     * @return dense index of the user of the i-th vote, only for votes {@link #withUserIndexes}
+     */
+    public int getUserIndex(int i) {
+        return userIndexes[i];
+    }
+
+    public int getUsersCount() {
+        checkUserIndexes();
+        return userIds.length;
+    }
+
+    public long getUserId(int userIndex) {
+        checkUserIndexes();
+        return userIds[userIndex];
+    }
+
+    private void checkUserIndexes() {
+        if (!hasUserIndexes()) {
+            throw new IllegalStateException("users are not numbered, use withUserIndexes()");
+        }
+    }
+}
@@ -2,10 +2,9 @@ package ru.ovsyannikov.elicitation;
 
 import ru.ovsyannikov.parsing.model.Movie;
 
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.List;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author Georgii Ovsiannikov
@@ -13,40 +12,78 @@ import java.util.stream.Collectors;
  */
 public class SplitterDeterminant {
 
+    // оценка выше порога – фильм понравился, не выше – не понравился
+    public static final int LIKE_THRESHOLD = 7;
+
     public Movie getSplitter(List<Movie> movies) {
         if (movies.isEmpty()) {
             return null;
         }
 
+        return movies.get(getSplitter(PackedVotes.fromMovies(movies)));
+    }
+
+    /**
+     * Выбирает фильм, после разделения по которому (понравился / не понравился / неизвестно)
+     * сумма квадратов отклонений оценок минимальна. Кандидаты оцениваются параллельно,
+     * статистики каждого считаются за один проход по его оценкам.
+     *
+     * @return индекс фильма; при равной ошибке – первый из них
+     */
+    public int getSplitter(PackedVotes votes) {
+        return getSplitter(votes, null, null, false);
+    }
+
+    /**
+     * То же на подмножестве оценок: учитываются только оценки пользователей из users, фильмы из excludedMovies
+     * и фильмы без оценок этих пользователей кандидатами не являются. Оценки не копируются.
+     *
+     * @param votes – оценки с нумерацией пользователей, если users задано (см. {@link PackedVotes#withUserIndexes})
+     * @param users – плотные индексы пользователей (см. {@link PackedVotes#getUserIndex})
+     * @param excludedMovies – индексы фильмов, которые не рассматриваются (например, уже заданные вопросы)
+     * @return индекс фильма или -1, если кандидатов нет
+     */
+    public int getSplitter(PackedVotes votes, BitSet users, BitSet excludedMovies) {
+        if (users != null && !votes.hasUserIndexes()) {
+            throw new IllegalArgumentException("users are not numbered in the votes!");
+        }
+
+        return getSplitter(votes, users, excludedMovies, true);
+    }
+
+    private int getSplitter(PackedVotes votes, BitSet users, BitSet excludedMovies, boolean withVotesOnly) {
         // total
-        double r = movies.stream().map(Movie::getVotes).flatMap(Collection::stream).mapToDouble(Movie.UserVote::getVote).sum();
-        double r2 = movies.stream().map(Movie::getVotes).flatMap(Collection::stream).mapToDouble(uv -> uv.getVote() * uv.getVote()).sum();
-        int n = (int) movies.stream().map(Movie::getVotes).flatMap(Collection::stream).count();
+        long r = 0;
+        long r2 = 0;
+        int n = 0;
+        for (int movie = 0; movie < votes.getMoviesCount(); movie++) {
+            if (excludedMovies != null && excludedMovies.get(movie)) {
+                continue;
+            }
 
-        double minError = Double.MAX_VALUE;
+            for (int i = votes.getStart(movie); i < votes.getEnd(movie); i++) {
+                if (users == null || users.get(votes.getUserIndex(i))) {
+                    int vote = votes.getVote(i);
+                    r += vote;
+                    r2 += vote * vote;
+                    n++;
+                }
+            }
+        }
+
+        double[] errors = new double[votes.getMoviesCount()];
+        final long fr = r;
+        final long fr2 = r2;
+        final int fn = n;
+        IntStream.range(0, errors.length).parallel().forEach(movie -> errors[movie] =
+                excludedMovies != null && excludedMovies.get(movie) ? Double.NaN :
+                        getError(votes, movie, users, withVotesOnly, fn, fr, fr2));
 
-        Movie splitter = movies.isEmpty() ? null : movies.get(0);
-        for (Movie movie : movies) {
-            // likers
-            List<Movie.UserVote> likers = getVoters(movie, uv -> uv.getVote() > 7);
-            double lr = likers.stream().mapToDouble(Movie.UserVote::getVote).sum();
-            double lr2 = likers.stream().mapToDouble(uv -> uv.getVote() * uv.getVote()).sum();
-            int ln = likers.size();
-            // haters
-            List<Movie.UserVote> haters = getVoters(movie, uv -> uv.getVote() <= 7);
-            double hr = haters.stream().mapToDouble(Movie.UserVote::getVote).sum();
-            double hr2 = haters.stream().mapToDouble(uv -> uv.getVote() * uv.getVote()).sum();
-            int hn = haters.size();
-            // unknown
-            double ur = r - lr - hr;
-            double ur2 = r2 - lr2 - hr2;
-            int un = n - ln - hn;
-
-            double error = (un == 0 ? 0 :(ur2 - ur * ur / un)) +
-                    (ln == 0 ? 0 : (lr2 - lr * lr / ln)) +
-                    (hn == 0 ? 0 : (hr2 - hr * hr / hn));
-            if (error < minError) {
-                minError = error;
+        double minError = Double.MAX_VALUE;
+        int splitter = withVotesOnly ? -1 : 0;
+        for (int movie = 0; movie < errors.length; movie++) {
+            if (errors[movie] < minError) {
+                minError = errors[movie];
                 splitter = movie;
             }
         }
@@ -54,10 +91,44 @@ public class SplitterDeterminant {
         return splitter;
     }
 
-    private List<Movie.UserVote> getVoters(Movie movie, Predicate<Movie.UserVote> categoryFilter) {
-        return movie.getVotes().stream()
-                .filter(categoryFilter)
-                .collect(Collectors.toList());
-    }
+    /**
+     * @return ошибка после разделения по фильму; NaN, если оценок фильма нет и они обязательны
+     */
+    private double getError(PackedVotes votes, int movie, BitSet users, boolean withVotesOnly, int n, long r, long r2) {
+        // likers
+        long lr = 0;
+        long lr2 = 0;
+        int ln = 0;
+        // haters
+        long hr = 0;
+        long hr2 = 0;
+        int hn = 0;
+        for (int i = votes.getStart(movie); i < votes.getEnd(movie); i++) {
+            if (users != null && !users.get(votes.getUserIndex(i))) {
+                continue;
+            }
 
+            int vote = votes.getVote(i);
+            if (vote > LIKE_THRESHOLD) {
+                lr += vote;
+                lr2 += vote * vote;
+                ln++;
+            } else {
+                hr += vote;
+                hr2 += vote * vote;
+                hn++;
+            }
+        }
+        if (withVotesOnly && ln + hn == 0) {
+            return Double.NaN;
+        }
+        // unknown
+        double ur = r - lr - hr;
+        double ur2 = r2 - lr2 - hr2;
+        int un = n - ln - hn;
+
+        return (un == 0 ? 0 : (ur2 - ur * ur / un)) +
+                (ln == 0 ? 0 : (lr2 - (double) lr * lr / ln)) +
+                (hn == 0 ? 0 : (hr2 - (double) hr * hr / hn));
+    }
 }
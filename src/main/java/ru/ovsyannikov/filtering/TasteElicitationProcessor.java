@@ -14,11 +14,14 @@ import ru.ovsyannikov.clustering.KMeansProcessor;
 import ru.ovsyannikov.clustering.model.ClusterCenter;
 import ru.ovsyannikov.collaborative.MovieMarkForecaster;
 import ru.ovsyannikov.collaborative.UserNeighboursProcessor;
+import ru.ovsyannikov.collaborative.UserSimilarityIndex;
+import ru.ovsyannikov.collaborative.VoteMatrix;
 import ru.ovsyannikov.parsing.model.Movie;
 
 import javax.annotation.PostConstruct;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -39,9 +42,109 @@ public class TasteElicitationProcessor {
     @Autowired
     private JdbcTemplate template;
 
+    /**
+     * Keeps {@link #votesByUser} up to date with the votes saved through movieStorageHelper, as the cluster similarity indexes
+     * are kept, so neighbours and forecasts are computed on the same marks. A user's list is replaced, never modified in place
+     */
+    private class VotesByUserUpdater implements MovieStorageHelper.VoteListener {
+
+        @Override
+        public void onVoteSet(Long userId, Long kinopoiskId, Integer vote) {
+            UserNeighboursProcessor.UserVote userVote = new UserNeighboursProcessor.UserVote();
+            userVote.setUserId(userId);
+            userVote.setKinopoiskId(kinopoiskId);
+            userVote.setVote(vote);
+            // as setMovieVote saves it with now()
+            userVote.setDt(new Timestamp(System.currentTimeMillis()));
+            votesByUser.compute(userId, (id, userVotes) -> {
+                List<UserNeighboursProcessor.UserVote> updated = withoutMovie(userVotes, kinopoiskId);
+                updated.add(userVote);
+                return updated;
+            });
+        }
+
+        @Override
+        public void onVoteDeleted(Long userId, Long kinopoiskId) {
+            votesByUser.computeIfPresent(userId, (id, userVotes) -> withoutMovie(userVotes, kinopoiskId));
+        }
+
+        private List<UserNeighboursProcessor.UserVote> withoutMovie(List<UserNeighboursProcessor.UserVote> userVotes, Long kinopoiskId) {
+            if (userVotes == null) {
+                return new ArrayList<>();
+            }
+
+            return userVotes.stream()
+                    .filter(userVote -> !Objects.equals(userVote.getKinopoiskId(), kinopoiskId))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Passes a vote to the similarity index of the movie's cluster; votes of movies out of the clusters are not used
+     * by {@link #getRecommendedMovies}
+     */
+    private class ClusterIndexesUpdater implements MovieStorageHelper.VoteListener {
+
+        @Override
+        public void onVoteSet(Long userId, Long kinopoiskId, Integer vote) {
+            UserSimilarityIndex index = movieClusterIndexes.get(kinopoiskId);
+            if (index != null) {
+                index.onVoteSet(userId, kinopoiskId, vote);
+            }
+        }
+
+        @Override
+        public void onVoteDeleted(Long userId, Long kinopoiskId) {
+            UserSimilarityIndex index = movieClusterIndexes.get(kinopoiskId);
+            if (index != null) {
+                index.onVoteDeleted(userId, kinopoiskId);
+            }
+        }
+    }
+
+    /**
+     * Keeps the votes of the clustered movies ({@link Movie#getVotes}) up to date, so the watched clusters are found
+     * by the same marks the neighbours and forecasts use. The list of a movie is replaced, never modified in place
+     */
+    private class MovieVotesUpdater implements MovieStorageHelper.VoteListener {
+
+        @Override
+        public void onVoteSet(Long userId, Long kinopoiskId, Integer vote) {
+            for (Movie movie : clusteredMovies.getOrDefault(kinopoiskId, Collections.emptyList())) {
+                synchronized (movie) {
+                    List<Movie.UserVote> votes = withoutUser(movie.getVotes(), userId);
+                    votes.add(new Movie.UserVote(userId, vote));
+                    movie.setVotes(votes);
+                }
+            }
+        }
+
+        @Override
+        public void onVoteDeleted(Long userId, Long kinopoiskId) {
+            for (Movie movie : clusteredMovies.getOrDefault(kinopoiskId, Collections.emptyList())) {
+                synchronized (movie) {
+                    movie.setVotes(withoutUser(movie.getVotes(), userId));
+                }
+            }
+        }
+
+        private List<Movie.UserVote> withoutUser(List<Movie.UserVote> votes, Long userId) {
+            return votes.stream()
+                    .filter(userVote -> !Objects.equals(userVote.getUserId(), userId))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // clusters are computed at startup and fixed, the votes of their movies and of the users are live
     private List<List<Movie>> movieClusters;
-    // user_id -> list of marks
+    // kinopoisk_id -> movies of the clusters, their votes are kept up to date by MovieVotesUpdater
+    private final Map<Long, List<Movie>> clusteredMovies = new HashMap<>();
+    // user_id -> list of marks, kept up to date by VotesByUserUpdater
     private Map<Long, List<UserNeighboursProcessor.UserVote>> votesByUser;
+    // cluster -> user-user similarities over its movies, kept up to date by ClusterIndexesUpdater
+    private final Map<List<Movie>, UserSimilarityIndex> clusterIndexes = new IdentityHashMap<>();
+    // kinopoisk_id -> similarities of its cluster
+    private final Map<Long, UserSimilarityIndex> movieClusterIndexes = new HashMap<>();
 
     @PostConstruct
     public void init() {
@@ -56,7 +159,7 @@ public class TasteElicitationProcessor {
 //                        .collect(Collectors.toList());
 
         List<UserNeighboursProcessor.UserVote> votes = template.query("select * from " + tableName, new BeanPropertyRowMapper<>(UserNeighboursProcessor.UserVote.class));
-        votesByUser = new HashMap<>();
+        votesByUser = new ConcurrentHashMap<>();
         for (UserNeighboursProcessor.UserVote userVote : votes) {
             List<UserNeighboursProcessor.UserVote> userVotes = votesByUser.get(userVote.getUserId());
             if (userVotes == null) {
@@ -65,6 +168,42 @@ public class TasteElicitationProcessor {
             }
             userVotes.add(userVote);
         }
+
+        for (List<Movie> cluster : movieClusters) {
+            cluster.forEach(movie -> clusteredMovies.computeIfAbsent(movie.getKinopoiskId(), id -> new ArrayList<>()).add(movie));
+        }
+        buildClusterIndexes(votes);
+        movieStorageHelper.addVoteListener(new ClusterIndexesUpdater());
+        movieStorageHelper.addVoteListener(new VotesByUserUpdater());
+        movieStorageHelper.addVoteListener(new MovieVotesUpdater());
+    }
+
+    /**
+     * Builds a similarity index per cluster over the votes of its movies: neighbours over the watched clusters are
+     * combined from them instead of building a vote matrix of the watched clusters on every request
+     */
+    private void buildClusterIndexes(List<UserNeighboursProcessor.UserVote> votes) {
+        Map<Long, List<Movie>> clusterOfMovie = new HashMap<>();
+        for (List<Movie> cluster : movieClusters) {
+            cluster.forEach(movie -> clusterOfMovie.putIfAbsent(movie.getKinopoiskId(), cluster));
+        }
+
+        Map<List<Movie>, Map<Long, List<UserNeighboursProcessor.UserVote>>> votesByCluster = new IdentityHashMap<>();
+        for (UserNeighboursProcessor.UserVote userVote : votes) {
+            List<Movie> cluster = clusterOfMovie.get(userVote.getKinopoiskId());
+            if (cluster != null) {
+                votesByCluster.computeIfAbsent(cluster, c -> new HashMap<>())
+                        .computeIfAbsent(userVote.getUserId(), id -> new ArrayList<>())
+                        .add(userVote);
+            }
+        }
+
+        for (List<Movie> cluster : movieClusters) {
+            UserSimilarityIndex index = new UserSimilarityIndex(VoteMatrix.fromUserVotes(
+                    votesByCluster.getOrDefault(cluster, Collections.emptyMap())));
+            clusterIndexes.put(cluster, index);
+            cluster.forEach(movie -> movieClusterIndexes.putIfAbsent(movie.getKinopoiskId(), index));
+        }
     }
 
     public List<List<Movie>> getClustersLazy(List<Movie> movies) {
@@ -128,8 +267,10 @@ public class TasteElicitationProcessor {
                     .collect(Collectors.toList()));
         }
 
-        UserNeighboursProcessor neighboursProcessor = new UserNeighboursProcessor(localVotesByUser);
-        Map<Long, Double> userNeighbours = neighboursProcessor.getUserNeighbours(userId, 5);
+        // соседи по оценкам фильмов просмотренных кластеров, как у матрицы по localVotesByUser
+        Map<Long, Double> userNeighbours = UserSimilarityIndex.getUserNeighbours(userId, 5, watchedClusters.stream()
+                .map(clusterIndexes::get)
+                .collect(Collectors.toList()));
         MovieMarkForecaster markForecaster = new MovieMarkForecaster(localVotesByUser);
 
         return markForecaster.forecastMarks(5, userId, userNeighbours);
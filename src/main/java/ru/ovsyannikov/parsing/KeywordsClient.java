@@ -0,0 +1,23 @@
+package ru.ovsyannikov.parsing;
+
+import java.util.List;
+
+/**
+ * Source of movie keywords for {@link KeywordsProcessor}: TMDb ({@link TmdbKeywordsClient})
+ * or a local stub ({@link StubKeywordsClient}) for offline load tests. Implementations must be thread-safe
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/7/15
+ */
+public interface KeywordsClient {
+
+    /**
+     * @return id of the movie with exactly this title, -1 if there is no such movie
+     */
+    int searchMovie(String title);
+
+    /**
+     * @return names of the keywords of the movie
+     */
+    List<String> getKeywords(int movieId);
+}
@@ -1,25 +1,40 @@
 package ru.ovsyannikov.parsing;
 
-import com.omertron.themoviedbapi.MovieDbException;
-import com.omertron.themoviedbapi.TheMovieDbApi;
-import com.omertron.themoviedbapi.enumeration.SearchType;
-import com.omertron.themoviedbapi.model.keyword.Keyword;
-import com.omertron.themoviedbapi.model.movie.MovieInfo;
-import com.omertron.themoviedbapi.results.ResultList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ovsyannikov.NameDictionary;
 
-import java.sql.PreparedStatement;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Loads keywords of the movies from TMDb. A pipeline of two stages:
+ * <ul>
+ *     <li>fetch – concurrency threads search the titles and fetch their keywords, the requests are limited by a token bucket
+ *     (TMDb allows 40 requests per 10 seconds);</li>
+ *     <li>write – the calling thread collects the fetched movies into batches of batchSize movies and writes every batch
+ *     in one transaction: ids of the keywords are taken from a cached dictionary (unknown ones are inserted by a multi-row insert),
+ *     movie_keywords rows are written by a JDBC batch.</li>
+ * </ul>
+ * The stages are connected by a bounded queue, so fetching waits for a slow database.
+ * Movies not found or without keywords are not written and are tried again by the next run.
+ * In the dry run the write stage only counts the rows it would write, nothing is written to the database.
+ *
  * @author Georgii Ovsiannikov
  * @since 5/6/15
  */
@@ -47,12 +62,84 @@ public class KeywordsProcessor {
         }
     }
 
+    /**
+     * Fetched keywords of a movie
+     */
+    private static class MovieKeywords {
+        private final Long movieId;
+        private final List<String> keywords;
+
+        MovieKeywords(Long movieId, List<String> keywords) {
+            this.movieId = movieId;
+            this.keywords = keywords;
+        }
+    }
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 4;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    // a batch is written at most this time after its first movie is fetched
+    private static final long FLUSH_INTERVAL_MILLIS = 5000;
+    private static final MovieKeywords END = new MovieKeywords(null, null);
+
     private static final Logger logger = LoggerFactory.getLogger(KeywordsProcessor.class);
 
     @Autowired
-    private TheMovieDbApi client;
+    private KeywordsClient client;
     @Autowired
     private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final NameDictionary keywords = new NameDictionary("keywords", "keyword_id", "name");
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean dryRun;
+
+    /**
+     * @param client – источник ключевых слов, {@link TmdbKeywordsClient} по умолчанию
+     */
+    public void setClient(KeywordsClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param concurrency – количество одновременных запросов к клиенту
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive!");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param requestsPerSecond – ограничение частоты запросов к клиенту (поиск и ключевые слова)
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive!");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * @param batchSize – количество фильмов, ключевые слова которых записываются в одной транзакции
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive!");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param dryRun – не писать в базу, только считать строки movie_keywords (нагрузочный тест)
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
 
     public void process() {
         try {
@@ -61,55 +148,156 @@ public class KeywordsProcessor {
                     "where movie_id not in (select distinct movie_id from movie_keywords) " +
                     "group by movie_id " +
                     "order by count(*) desc", new BeanPropertyRowMapper<>(MovieTitle.class));
+            process(titles);
+        } catch (Exception e) {
+            logger.error("error", e);
+        }
+    }
+
+    /**
+     * Fetches and saves keywords of the titles
+     * @return number of movies saved with keywords
+     */
+    public int process(List<MovieTitle> titles) throws InterruptedException {
+        if (titles.isEmpty()) {
+            return 0;
+        }
+
+        BlockingQueue<MovieKeywords> fetched = new ArrayBlockingQueue<>(2 * batchSize);
+        TokenBucket requests = new TokenBucket(requestsPerSecond, concurrency);
+        AtomicInteger remaining = new AtomicInteger(titles.size());
+        ExecutorService fetchers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "keywords-fetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
             for (MovieTitle title : titles) {
-                int movieId = searchMovie(title.getTitle());
-                Thread.sleep(300);
-                if (movieId > 0) {
-                    ResultList<Keyword> movieKeywords = client.getMovieKeywords(movieId);
-                    GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
-
-                    for (Keyword keyword : movieKeywords.getResults()) {
-                        Long keywordId;
-                        try {
-                            jdbcTemplate.update(con -> {
-                                PreparedStatement statement = con.prepareStatement("insert into keywords(name) values (?)", Statement.RETURN_GENERATED_KEYS);
-                                statement.setString(1, keyword.getName());
-                                return statement;
-                            }, keyHolder);
-                            keywordId = keyHolder.getKey().longValue();
-                        } catch (Exception e) {
-                            keywordId = jdbcTemplate.queryForObject("select keyword_id from keywords where name = ?", Long.class, keyword.getName());
+                fetchers.submit(() -> {
+                    try {
+                        fetch(title, requests, fetched);
+                    } finally {
+                        // the last fetched title closes the queue
+                        if (remaining.decrementAndGet() == 0) {
+                            fetched.put(END);
                         }
-
-                        jdbcTemplate.update("replace into movie_keywords values(?, ?)", title.getMovieId(), keywordId);
                     }
-                }
+                    return null;
+                });
             }
 
-        } catch (Exception e) {
-            logger.error("error", e);
+            return write(fetched);
+        } finally {
+            fetchers.shutdownNow();
         }
     }
 
-    private int searchMovie(String title) throws MovieDbException {
+    private void fetch(MovieTitle title, TokenBucket requests, BlockingQueue<MovieKeywords> fetched) throws InterruptedException {
         try {
-            ResultList<MovieInfo> foundMovies = client.searchMovie(title, 0, "ru", true, 0, null, SearchType.PHRASE);
-            for (MovieInfo movieInfo : foundMovies.getResults()) {
-                if (movieInfo.getTitle().equals(title)) {
-                    return movieInfo.getId();
+            requests.acquire();
+            int movieId = client.searchMovie(title.getTitle());
+            if (movieId > 0) {
+                requests.acquire();
+                List<String> movieKeywords = client.getKeywords(movieId);
+                if (!movieKeywords.isEmpty()) {
+                    fetched.put(new MovieKeywords(title.getMovieId(), movieKeywords));
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("can't fetch keywords of " + title.getTitle(), e);
+        }
+    }
+
+    /**
+     * Writes the fetched movies by batches until the end of the queue
+     * @return number of written movies
+     */
+    private int write(BlockingQueue<MovieKeywords> fetched) throws InterruptedException {
+        int written = 0;
+        long rows = 0;
+        List<MovieKeywords> batch = new ArrayList<>();
+        long flushAt = Long.MAX_VALUE;
+        while (true) {
+            long timeout = flushAt == Long.MAX_VALUE ? FLUSH_INTERVAL_MILLIS : Math.max(0, flushAt - System.currentTimeMillis());
+            MovieKeywords movieKeywords = fetched.poll(timeout, TimeUnit.MILLISECONDS);
+            if (movieKeywords == END) {
+                break;
+            }
+            if (movieKeywords != null) {
+                if (batch.isEmpty()) {
+                    flushAt = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
                 }
+                batch.add(movieKeywords);
+            }
+            if (batch.size() >= batchSize || (!batch.isEmpty() && System.currentTimeMillis() >= flushAt)) {
+                rows += countRows(batch);
+                written += save(batch);
+                batch.clear();
+                flushAt = Long.MAX_VALUE;
             }
-        } catch (Throwable e) {
-            e.printStackTrace();
+        }
+        rows += countRows(batch);
+        written += save(batch);
+        if (dryRun) {
+            logger.info("dry run: keywords of {} movies fetched, {} movie_keywords rows not written", written, rows);
+        } else {
+            logger.info("keywords of {} movies saved, {} keywords cached", written, keywords.size());
         }
 
-        return -1;
+        return written;
     }
 
+    private int save(List<MovieKeywords> batch) {
+        if (batch.isEmpty() || dryRun) {
+            return batch.size();
+        }
+
+        // keywords inserted in the transaction are cached only after the commit
+        Map<String, Long> created = new HashMap<>();
+        transactionTemplate.execute(transactionStatus -> {
+            Map<String, Long> keywordIds = keywords.resolve(jdbcTemplate, batch.stream().map(movie -> movie.keywords), created);
+            List<Object[]> movieKeywords = new ArrayList<>();
+            for (MovieKeywords movie : batch) {
+                new LinkedHashSet<>(movie.keywords).forEach(keyword -> movieKeywords.add(new Object[]{movie.movieId, keywordIds.get(keyword)}));
+            }
+            jdbcTemplate.batchUpdate("replace into movie_keywords values (?, ?)", movieKeywords);
+
+            return null;
+        });
+        keywords.publish(created);
+
+        return batch.size();
+    }
+
+    private static long countRows(List<MovieKeywords> batch) {
+        return batch.stream().mapToLong(movie -> new LinkedHashSet<>(movie.keywords).size()).sum();
+    }
+
+    /**
+     * <pre>
+     * KeywordsProcessor [stub [requests per second [concurrency]]]
+     * </pre>
+     * stub – load test with {@link StubKeywordsClient}, a dry run: titles are read from the configured database,
+ * generated keywords are counted, not written
+     */
     public static void main(String[] args) {
         ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("application-context.xml");
         KeywordsProcessor processor = context.getBean(KeywordsProcessor.class);
+        if (args.length > 0 && "stub".equals(args[0])) {
+            processor.setClient(new StubKeywordsClient(50, 15, 20000));
+            // generated keywords must not get into the database: their movies would never get the real ones
+            processor.setDryRun(true);
+        }
+        if (args.length > 1) {
+            processor.setRequestsPerSecond(Double.parseDouble(args[1]));
+        }
+        if (args.length > 2) {
+            processor.setConcurrency(Integer.parseInt(args[2]));
+        }
+
+        long start = System.currentTimeMillis();
         processor.process();
+        logger.info("processed in {} ms", System.currentTimeMillis() - start);
     }
 
 }
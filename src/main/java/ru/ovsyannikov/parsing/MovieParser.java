@@ -10,12 +10,15 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Service;
 import ru.ovsyannikov.MovieStorageHelper;
 import ru.ovsyannikov.exceptions.KinopoiskForbiddenException;
+import ru.ovsyannikov.parsing.crawler.CrawlFrontier;
+import ru.ovsyannikov.parsing.crawler.CrawlerEngine;
 import ru.ovsyannikov.parsing.model.Movie;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
 
 /**
  * @author Georgii Ovsiannikov
@@ -25,10 +28,16 @@ import java.util.concurrent.*;
 public class MovieParser {
 
     private static final Logger logger = LoggerFactory.getLogger(MovieParser.class);
+    // количество разобранных фильмов, сохраняемых одной транзакцией
+    private static final int SAVE_BATCH_SIZE = 50;
+    private static final String MOVIE_URL = "http://kinopoisk.ru/film/%d";
+    public static final String DEFAULT_FRONTIER_FILE = "movies.frontier";
 
     @Autowired
     public MovieStorageHelper movieStorageHelper;
 
+    private File frontierFile = new File(DEFAULT_FRONTIER_FILE);
+
     /**
      * @see #parseMovie(String, boolean)
      */
@@ -50,7 +59,7 @@ public class MovieParser {
 
         try {
             Movie movie = new Movie();
-            movie.fillInFields(document);
+            movie.fillInFields(document, Movie.Extraction.SINGLE_PASS);
             return movie;
         } catch (IllegalArgumentException e) {
             logger.error("error parsing movie at {}", url, e);
@@ -73,65 +82,66 @@ public class MovieParser {
     /**
      * Establishing Jsoup connection to the given url (using human-like cookies)
      * @param url – url to request for document
+     * @return document or null on i/o errors
      */
     public Document downloadDocument(String url) {
         try {
-            Connection.Response response = Jsoup.connect(url)
-                    .timeout(10000)
-                    .followRedirects(true)
-                    .header("User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_10_2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/41.0.2272.118 Safari/537.36")
-                    .header("Cookie", "tc=5381; awfs=1; user_country=ru; noflash=false; mobile=no; mobile=no; _ym_visorc_22663942=b; yandexuid=687401641428855418; refresh_yandexuid=687401641428855418")
-                    .execute();
-
-            if (response.url().getHost().contains("error.")) {
-                throw new KinopoiskForbiddenException(url);
-            }
-
-            return response.parse();
+            return fetchDocument(url);
         } catch (IOException e) {
             logger.error("io - ", e);
             return null;
         }
     }
 
-    public void process() {
-        // fetch movies that are not yet processed
-        List<Long> kinopoiskIds = movieStorageHelper.getUnprocessedMovies();
-        ArrayBlockingQueue<Long> movieIds = new ArrayBlockingQueue<>(kinopoiskIds.size(), true, kinopoiskIds);
-
-        int poolSize = 8;
-        ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
-
-        for (int i = 0; i < poolSize; i++) {
-            try {
-                Thread.sleep(1000 / poolSize);
-                executorService.submit(() -> processMovie(movieIds));
-            } catch (InterruptedException e) {
-                throw new CancellationException();
-            }
+    /**
+     * @see #downloadDocument(String)
+     * @throws KinopoiskForbiddenException if redirected to the error host
+     * @throws org.jsoup.HttpStatusException on http errors (403 by kinopoisk among them)
+     */
+    public Document fetchDocument(String url) throws IOException {
+        Connection.Response response = Jsoup.connect(url)
+                .timeout(10000)
+                .followRedirects(true)
+                .header("User-Agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_10_2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/41.0.2272.118 Safari/537.36")
+                .header("Cookie", "tc=5381; awfs=1; user_country=ru; noflash=false; mobile=no; mobile=no; _ym_visorc_22663942=b; yandexuid=687401641428855418; refresh_yandexuid=687401641428855418")
+                .execute();
+
+        if (response.url().getHost().contains("error.")) {
+            throw new KinopoiskForbiddenException(url);
         }
 
-        executorService.shutdown();
+        return response.parse();
     }
 
-    public void processMovie(BlockingQueue<Long> queue) {
-        try {
-            Long kinopoiskId;
-            while ((kinopoiskId = queue.poll(5, TimeUnit.MINUTES)) != null) {
-                MovieParser movieParser = new MovieParser();
-                logger.info("movie #{} – started", kinopoiskId);
-                Movie movie = movieParser.parseMovie("http://kinopoisk.ru/film/" + kinopoiskId);
-                if (movie != null) {
-                    movie.setKinopoiskId(kinopoiskId);
-                    movieStorageHelper.saveMovie(movie);
-                    logger.info("movie #{} – processed", kinopoiskId);
-                }
-            }
-        }catch(InterruptedException e){
-            logger.error("ERROR with queue", e);
-        }catch(KinopoiskForbiddenException e){
-            logger.error("403 by kinopoisk", e);
-        }catch(IllegalStateException ignore){
+    /**
+     * @param frontierFile – файл состояния обхода, по умолчанию {@link #DEFAULT_FRONTIER_FILE}
+     */
+    public void setFrontierFile(File frontierFile) {
+        this.frontierFile = frontierFile;
+    }
+
+    /**
+     * Crawls movies that are not processed yet, resuming the crawl saved in the frontier file
+     * @see CrawlerEngine
+     */
+    public void process() {
+        try (CrawlFrontier frontier = new CrawlFrontier(frontierFile)) {
+            CrawlerEngine engine = new CrawlerEngine(this::fetchDocument, MOVIE_URL, frontier, this::save);
+            engine.setBatchSize(SAVE_BATCH_SIZE);
+            engine.crawl(movieStorageHelper.getUnprocessedMovies());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Saves a batch of the crawler; a failed batch is not saved again here, its movies stay pending in the frontier
+     */
+    private void save(List<Movie> movies) {
+        if (!movies.isEmpty()) {
+            movieStorageHelper.saveMovies(movies);
+            logger.info("movies #{} – processed", movies.stream().map(Movie::getKinopoiskId).collect(Collectors.toList()));
         }
     }
 
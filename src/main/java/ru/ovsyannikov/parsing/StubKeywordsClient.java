@@ -0,0 +1,57 @@
+package ru.ovsyannikov.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Local replacement of TMDb for load tests of {@link KeywordsProcessor}: every title is found,
+ * every movie gets keywordsCount keywords of a vocabulary of vocabularySize names (the same ones for the same movie),
+ * every request takes latencyMillis
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/7/15
+ */
+public class StubKeywordsClient implements KeywordsClient {
+
+    private final long latencyMillis;
+    private final int keywordsCount;
+    private final int vocabularySize;
+
+    public StubKeywordsClient(long latencyMillis, int keywordsCount, int vocabularySize) {
+        if (latencyMillis < 0 || keywordsCount < 0 || vocabularySize < 1) {
+            throw new IllegalArgumentException("latency and keywords count must be non-negative, vocabulary must not be empty!");
+        }
+
+        this.latencyMillis = latencyMillis;
+        this.keywordsCount = keywordsCount;
+        this.vocabularySize = vocabularySize;
+    }
+
+    @Override
+    public int searchMovie(String title) {
+        respond();
+        return (title.hashCode() & Integer.MAX_VALUE) | 1;
+    }
+
+    @Override
+    public List<String> getKeywords(int movieId) {
+        respond();
+        Random random = new Random(movieId);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < keywordsCount; i++) {
+            keywords.add("keyword " + random.nextInt(vocabularySize));
+        }
+
+        return keywords;
+    }
+
+    private void respond() {
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+    }
+}
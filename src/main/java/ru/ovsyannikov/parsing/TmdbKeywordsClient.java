@@ -0,0 +1,53 @@
+package ru.ovsyannikov.parsing;
+
+import com.omertron.themoviedbapi.MovieDbException;
+import com.omertron.themoviedbapi.TheMovieDbApi;
+import com.omertron.themoviedbapi.enumeration.SearchType;
+import com.omertron.themoviedbapi.model.keyword.Keyword;
+import com.omertron.themoviedbapi.model.movie.MovieInfo;
+import com.omertron.themoviedbapi.results.ResultList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * @author Georgii Ovsiannikov
+ * @since 6/7/15
+ */
+@Service
+public class TmdbKeywordsClient implements KeywordsClient {
+
+    @Autowired
+    private TheMovieDbApi client;
+
+    @Override
+    public int searchMovie(String title) {
+        try {
+            ResultList<MovieInfo> foundMovies = client.searchMovie(title, 0, "ru", true, 0, null, SearchType.PHRASE);
+            for (MovieInfo movieInfo : foundMovies.getResults()) {
+                if (title.equals(movieInfo.getTitle())) {
+                    return movieInfo.getId();
+                }
+            }
+        } catch (MovieDbException e) {
+            throw new IllegalStateException("can't search movie " + title, e);
+        }
+
+        return -1;
+    }
+
+    @Override
+    public List<String> getKeywords(int movieId) {
+        try {
+            return client.getMovieKeywords(movieId).getResults().stream()
+                    .map(Keyword::getName)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } catch (MovieDbException e) {
+            throw new IllegalStateException("can't get keywords of movie " + movieId, e);
+        }
+    }
+}
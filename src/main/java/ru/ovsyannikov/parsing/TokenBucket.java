@@ -0,0 +1,77 @@
+package ru.ovsyannikov.parsing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter: tokens are added at a fixed rate up to capacity, every request takes one.
+ * A request without a token reserves the next one and sleeps until it is added, so waiting threads are served
+ * in the order of their calls and the rate holds for any number of threads
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/7/15
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private double tokensPerNano;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param tokensPerSecond – средняя частота запросов
+     * @param capacity – максимальное количество запросов подряд без ожидания
+     */
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if (tokensPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("rate and capacity must be positive!");
+        }
+
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting for it if the bucket is empty
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes a token without waiting for it
+     * @return nanoseconds until the token is added, the caller must not run the request before
+     */
+    public synchronized long reserve() {
+        refill();
+        // the debt is paid by the tokens added while the caller waits
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Changes the rate; the tokens added so far are kept
+     */
+    public synchronized void setRate(double tokensPerSecond) {
+        if (tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("rate must be positive!");
+        }
+
+        refill();
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    public synchronized double getRate() {
+        return tokensPerNano * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,115 @@
+package ru.ovsyannikov.parsing.crawler;
+
+import ru.ovsyannikov.parsing.TokenBucket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global request rate of the crawler, adapted to the answers of the site (AIMD):
+ * every successful page raises the rate by maxRate / 50 up to maxRate, a ban (403 or a redirect to the error host)
+ * halves it down to minRate and pauses all requests. The pause doubles with every ban in a row, up to maxPauseMillis.
+ * Bans of requests sent before the pause ended are taken as the same ban.
+ * Connection failures (a refused connection, a timeout) in a row are taken as an outage of the site:
+ * {@link #CONNECTION_FAILURES_TO_PAUSE} of them pause the requests like a ban, so an outage does not spend
+ * the attempts of every page
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/8/15
+ */
+public class AdaptiveRateLimiter {
+
+    public static final int CONNECTION_FAILURES_TO_PAUSE = 3;
+
+    private final double minRate;
+    private final double maxRate;
+    private final long pauseMillis;
+    private final long maxPauseMillis;
+    private final TokenBucket bucket;
+
+    private double rate;
+    private int pausesInRow;
+    private int connectionFailuresInRow;
+    private long pausedUntil;
+
+    public AdaptiveRateLimiter() {
+        this(0.2, 8, 30000, 600000);
+    }
+
+    /**
+     * @param minRate, maxRate – границы частоты запросов в секунду, начальная частота – maxRate / 2
+     * @param pauseMillis – пауза после первого бана
+     * @param maxPauseMillis – максимальная пауза
+     */
+    public AdaptiveRateLimiter(double minRate, double maxRate, long pauseMillis, long maxPauseMillis) {
+        if (minRate <= 0 || maxRate < minRate || pauseMillis < 0 || maxPauseMillis < pauseMillis) {
+            throw new IllegalArgumentException("rates and pauses must be positive and ordered!");
+        }
+
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.pauseMillis = pauseMillis;
+        this.maxPauseMillis = maxPauseMillis;
+        this.rate = Math.max(minRate, maxRate / 2);
+        this.bucket = new TokenBucket(rate, 1);
+    }
+
+    /**
+     * Takes the permission of a request without waiting
+     * @return milliseconds to wait before the request
+     */
+    public synchronized long reserve() {
+        return getPauseMillis() + TimeUnit.NANOSECONDS.toMillis(bucket.reserve());
+    }
+
+    public synchronized void onSuccess() {
+        pausesInRow = 0;
+        connectionFailuresInRow = 0;
+        setRate(rate + maxRate / 50);
+    }
+
+    /**
+     * @return true if the ban started a new pause, false if the requests are already paused
+     */
+    public synchronized boolean onBan() {
+        return pause();
+    }
+
+    /**
+     * @return true if the failure started a new pause, false if the requests are paused already or there are too few
+     * failures in a row to pause
+     */
+    public synchronized boolean onConnectionFailure() {
+        connectionFailuresInRow++;
+        return connectionFailuresInRow >= CONNECTION_FAILURES_TO_PAUSE && pause();
+    }
+
+    /**
+     * @return milliseconds until the end of the current pause, 0 if the requests are not paused
+     */
+    public synchronized long getPauseMillis() {
+        return Math.max(0, pausedUntil - System.currentTimeMillis());
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private boolean pause() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntil) {
+            return false;
+        }
+
+        long pause = Math.min(maxPauseMillis, pauseMillis << Math.min(pausesInRow, 20));
+        pausesInRow++;
+        pausedUntil = now + pause;
+        setRate(rate / 2);
+
+        return true;
+    }
+
+    private void setRate(double rate) {
+        this.rate = Math.max(minRate, Math.min(maxRate, rate));
+        bucket.setRate(this.rate);
+    }
+}
@@ -0,0 +1,225 @@
+package ru.ovsyannikov.parsing.crawler;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ids to crawl, persisted to a file so that a restarted crawler resumes: pending ids with the number of failed attempts,
+ * done ids and ids given up. Changes are appended to the file as a journal, which is compacted on opening:
+ * <pre>
+ * P &lt;id&gt; &lt;attempts&gt;  – pending
+ * D &lt;id&gt;             – done (the movie is saved)
+ * F &lt;id&gt;             – given up, there is no movie to parse on the page
+ * </pre>
+ * An id stays pending until its movie is saved, so pages in flight or parsed but not saved at a crash are crawled again.
+ * Pages that could not be loaded stay pending as well: a network outage must not drop them for good.
+ * Done ids are written through at once, the rest of the journal on {@link #save}
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/8/15
+ */
+public class CrawlFrontier implements Closeable {
+
+    private final File file;
+    private final Map<Long, Integer> pending = new LinkedHashMap<>();
+    private final Set<Long> done = new HashSet<>();
+    private final Set<Long> failed = new HashSet<>();
+    private final BufferedWriter journal;
+
+    /**
+     * @param file – файл состояния, читается, если существует
+     */
+    public CrawlFrontier(File file) {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+        compact();
+
+        try {
+            this.journal = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't open frontier " + file, e);
+        }
+    }
+
+    /**
+     * Adds ids that are neither pending, done nor given up
+     */
+    public synchronized void addAll(Collection<Long> ids) {
+        for (Long id : ids) {
+            if (!done.contains(id) && !failed.contains(id) && !pending.containsKey(id)) {
+                pending.put(id, 0);
+                write("P " + id + " 0");
+            }
+        }
+    }
+
+    /**
+     * Marks pending ids that are not among the ids as done
+     */
+    public synchronized void retainPending(Collection<Long> ids) {
+        Set<Long> retained = ids instanceof Set ? (Set<Long>) ids : new HashSet<>(ids);
+        List<Long> stale = new ArrayList<>();
+        for (Long id : pending.keySet()) {
+            if (!retained.contains(id)) {
+                stale.add(id);
+            }
+        }
+        if (!stale.isEmpty()) {
+            complete(stale);
+        }
+    }
+
+    /**
+     * Makes the ids that are pending or given up pending with no attempts, so every run tries them afresh
+     */
+    public synchronized void resetAttempts(Collection<Long> ids) {
+        for (Long id : ids) {
+            Integer attempts = pending.get(id);
+            if ((attempts != null && attempts > 0) || failed.remove(id)) {
+                pending.put(id, 0);
+                write("P " + id + " 0");
+            }
+        }
+    }
+
+    /**
+     * @return pending ids with their attempts, in the order of addition
+     */
+    public synchronized Map<Long, Integer> getPending() {
+        return new LinkedHashMap<>(pending);
+    }
+
+    public synchronized void setAttempts(Long id, int attempts) {
+        if (pending.containsKey(id)) {
+            pending.put(id, attempts);
+            write("P " + id + " " + attempts);
+        }
+    }
+
+    public synchronized void complete(Collection<Long> ids) {
+        for (Long id : ids) {
+            pending.remove(id);
+            if (done.add(id)) {
+                write("D " + id);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Gives the id up – its page is loaded, but there is no movie to parse on it
+     */
+    public synchronized void fail(Long id) {
+        pending.remove(id);
+        if (failed.add(id)) {
+            write("F " + id);
+        }
+    }
+
+    /**
+     * Writes the journal through to the file
+     */
+    public synchronized void save() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write frontier " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't close frontier " + file, e);
+        }
+    }
+
+    private void write(String line) {
+        try {
+            journal.write(line);
+            journal.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write frontier " + file, e);
+        }
+    }
+
+    /**
+     * Replays the journal; later lines of an id override the earlier ones
+     */
+    private void load() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            byte[] content = Files.readAllBytes(file.toPath());
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                // the last line is cut by a crash
+                lines.remove(lines.size() - 1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read frontier " + file, e);
+        }
+
+        for (String line : lines) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length == 3 && "P".equals(fields[0])) {
+                failed.remove(Long.valueOf(fields[1]));
+                pending.put(Long.valueOf(fields[1]), Integer.valueOf(fields[2]));
+            } else if (fields.length == 2 && "D".equals(fields[0])) {
+                pending.remove(Long.valueOf(fields[1]));
+                done.add(Long.valueOf(fields[1]));
+            } else if (fields.length == 2 && "F".equals(fields[0])) {
+                pending.remove(Long.valueOf(fields[1]));
+                failed.add(Long.valueOf(fields[1]));
+            } else if (!line.trim().isEmpty()) {
+                throw new IllegalStateException("malformed frontier line: " + line);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with a line per id, atomically
+     */
+    private void compact() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, Integer> entry : pending.entrySet()) {
+                writer.write("P " + entry.getKey() + " " + entry.getValue());
+                writer.newLine();
+            }
+            for (Long id : done) {
+                writer.write("D " + id);
+                writer.newLine();
+            }
+            for (Long id : failed) {
+                writer.write("F " + id);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't write frontier " + temp, e);
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't replace frontier " + file, e);
+        }
+    }
+}
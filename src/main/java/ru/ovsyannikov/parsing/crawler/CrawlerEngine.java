@@ -0,0 +1,431 @@
+package ru.ovsyannikov.parsing.crawler;
+
+import org.jsoup.HttpStatusException;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.ovsyannikov.exceptions.KinopoiskForbiddenException;
+import ru.ovsyannikov.parsing.model.Movie;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Crawls movie pages by kinopoisk ids. Every page is a small task that is never bound to a thread while it waits:
+ * <ul>
+ *     <li>a host slot – at most hostConcurrency pages of a host are in flight, the rest wait in a queue of the host;</li>
+ *     <li>the global {@link AdaptiveRateLimiter} – the task is scheduled to the time of its request;</li>
+ *     <li>a retry – a timeout, an i/o or a server error schedules the page again after retryDelayMillis * 2^attempt
+ *     with ±50% jitter, up to maxAttempts attempts; a ban (403, a redirect to the error host) or connection failures
+ *     in a row (an outage) pause the whole crawler and return the page to its host queue without spending an attempt.</li>
+ * </ul>
+ * A page out of attempts stays pending in the frontier and is tried again by the next run; only a page that can't be parsed
+ * is given up for good.
+ * Threads (concurrency) only run the fetches, so a ban or an error never stops a worker.
+ * Parsed movies are passed to the sink by batches and marked done in the frontier after the sink returns;
+ * the rest of the frontier is saved every {@link #FRONTIER_SAVE_INTERVAL_MILLIS}, so a restart resumes from the saved state.
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/8/15
+ */
+public class CrawlerEngine {
+
+    /**
+     * Downloads a page; ban is {@link KinopoiskForbiddenException} or {@link HttpStatusException} 403
+     */
+    public interface Fetcher {
+
+        Document fetch(String url) throws IOException;
+    }
+
+    /**
+     * Counters of a crawl
+     */
+    public static class Statistics {
+
+        private final AtomicInteger saved = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger deferred = new AtomicInteger();
+        private final AtomicInteger retries = new AtomicInteger();
+        private final AtomicInteger bans = new AtomicInteger();
+        private final AtomicInteger connectionFailures = new AtomicInteger();
+
+        public int getSaved() {
+            return saved.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return pages out of attempts, left pending for the next run
+         */
+        public int getDeferred() {
+            return deferred.get();
+        }
+
+        public int getRetries() {
+            return retries.get();
+        }
+
+        public int getBans() {
+            return bans.get();
+        }
+
+        public int getConnectionFailures() {
+            return connectionFailures.get();
+        }
+
+        @Override
+        public String toString() {
+            return "saved " + saved + ", failed " + failed + ", deferred " + deferred + ", retries " + retries + ", bans " + bans
+                    + ", connection failures " + connectionFailures;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlerEngine.class);
+    private static final long FRONTIER_SAVE_INTERVAL_MILLIS = 10000;
+
+    private final Fetcher fetcher;
+    private final String urlPattern;
+    private final CrawlFrontier frontier;
+    private final Consumer<List<Movie>> sink;
+
+    private AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+    private int concurrency = 8;
+    private int hostConcurrency = 4;
+    private int maxAttempts = 5;
+    private long retryDelayMillis = 2000;
+    private int batchSize = 50;
+
+    /**
+     * @param urlPattern – url of a movie page with %d for its kinopoisk id
+     * @param sink – saves a batch of parsed movies with their kinopoisk ids set
+     */
+    public CrawlerEngine(Fetcher fetcher, String urlPattern, CrawlFrontier frontier, Consumer<List<Movie>> sink) {
+        this.fetcher = fetcher;
+        this.urlPattern = urlPattern;
+        this.frontier = frontier;
+        this.sink = sink;
+    }
+
+    public void setRateLimiter(AdaptiveRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @param concurrency – максимальное количество одновременно загружаемых страниц
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive!");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param hostConcurrency – максимальное количество одновременно загружаемых страниц одного хоста
+     */
+    public void setHostConcurrency(int hostConcurrency) {
+        if (hostConcurrency < 1) {
+            throw new IllegalArgumentException("host concurrency must be positive!");
+        }
+        this.hostConcurrency = hostConcurrency;
+    }
+
+    /**
+     * @param maxAttempts – количество попыток загрузки страницы до отказа от неё
+     * @param retryDelayMillis – задержка перед первым повтором, удваивается с каждой попыткой
+     */
+    public void setRetries(int maxAttempts, long retryDelayMillis) {
+        if (maxAttempts < 1 || retryDelayMillis < 0) {
+            throw new IllegalArgumentException("at least one attempt and a non-negative delay are required!");
+        }
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * @param batchSize – количество фильмов, передаваемых в sink за раз
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive!");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Crawls the ids (the ones not saved yet) with maxAttempts attempts each, the ids given up by previous runs included.
+     * Pending ids that are not among them are saved already (e.g. a crash between the sink and the frontier) and are marked done
+     */
+    public Statistics crawl(Collection<Long> kinopoiskIds) throws InterruptedException {
+        frontier.retainPending(kinopoiskIds);
+        frontier.resetAttempts(kinopoiskIds);
+        frontier.addAll(kinopoiskIds);
+        return new Crawl().run(frontier.getPending());
+    }
+
+    /**
+     * State of a single {@link #crawl}
+     */
+    private class Crawl {
+
+        private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "crawler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+        private final List<Movie> parsed = new ArrayList<>();
+        private final Statistics statistics = new Statistics();
+        private CountDownLatch finished;
+        // set when the crawl ends: fetches still running do not pass their movies to the sink after the last flush
+        private volatile boolean stopped;
+
+        Statistics run(Map<Long, Integer> pending) throws InterruptedException {
+            logger.info("crawling {} pages", pending.size());
+            finished = new CountDownLatch(pending.size());
+            try {
+                executor.scheduleWithFixedDelay(this::saveFrontier, FRONTIER_SAVE_INTERVAL_MILLIS, FRONTIER_SAVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                pending.forEach((id, attempts) -> enqueue(new Page(id, attempts)));
+                finished.await();
+            } finally {
+                stopped = true;
+                executor.shutdownNow();
+                flush(true);
+                frontier.save();
+            }
+            logger.info("crawl finished: {}", statistics);
+
+            return statistics;
+        }
+
+        private void enqueue(Page page) {
+            if (hosts.computeIfAbsent(page.host, h -> new Host()).offer(page)) {
+                schedule(page);
+            }
+        }
+
+        /**
+         * Schedules the fetch of a page holding its host slot at the time given by the rate limiter
+         */
+        private void schedule(Page page) {
+            executor.schedule(() -> fetch(page), rateLimiter.reserve(), TimeUnit.MILLISECONDS);
+        }
+
+        private void fetch(Page page) {
+            if (rateLimiter.getPauseMillis() > 0) {
+                // scheduled before a ban, waits for the end of the pause keeping its host slot
+                schedule(page);
+                return;
+            }
+
+            Page next;
+            try {
+                Document document = fetcher.fetch(page.url);
+                rateLimiter.onSuccess();
+                parse(page, document);
+            } catch (KinopoiskForbiddenException e) {
+                ban(page);
+            } catch (HttpStatusException e) {
+                if (e.getStatusCode() == 403) {
+                    ban(page);
+                } else if (e.getStatusCode() >= 500 || e.getStatusCode() == 429) {
+                    retry(page, e);
+                } else {
+                    // 404 and the like – there is no movie to parse
+                    fail(page, e);
+                }
+            } catch (IOException e) {
+                connectionFailure(page, e);
+            } catch (RuntimeException e) {
+                retry(page, e);
+            } finally {
+                next = hosts.get(page.host).release();
+            }
+
+            if (next != null) {
+                schedule(next);
+            }
+        }
+
+        private void parse(Page page, Document document) {
+            Movie movie = new Movie();
+            try {
+                movie.fillInFields(document, Movie.Extraction.SINGLE_PASS);
+            } catch (RuntimeException e) {
+                // the page is loaded, another attempt will not parse it
+                fail(page, e);
+                return;
+            }
+
+            movie.setKinopoiskId(page.id);
+            synchronized (parsed) {
+                if (stopped) {
+                    return;
+                }
+                parsed.add(movie);
+            }
+            flush(false);
+            finished.countDown();
+        }
+
+        private void ban(Page page) {
+            statistics.bans.incrementAndGet();
+            if (rateLimiter.onBan()) {
+                logger.warn("403 by {}, pause {} ms, rate {} per second", page.host, rateLimiter.getPauseMillis(), rateLimiter.getRate());
+            }
+            // the page gets in line again after the rate limiter
+            executor.execute(() -> enqueue(page));
+        }
+
+        private void connectionFailure(Page page, Exception e) {
+            statistics.connectionFailures.incrementAndGet();
+            if (rateLimiter.onConnectionFailure()) {
+                logger.warn("{} is unreachable ({}), pause {} ms", page.host, e.toString(), rateLimiter.getPauseMillis());
+            }
+            if (rateLimiter.getPauseMillis() > 0) {
+                // an outage, not a failure of the page
+                executor.execute(() -> enqueue(page));
+            } else {
+                retry(page, e);
+            }
+        }
+
+        private void retry(Page page, Exception e) {
+            page.attempts++;
+            frontier.setAttempts(page.id, page.attempts);
+            if (page.attempts >= maxAttempts) {
+                defer(page, e);
+                return;
+            }
+
+            statistics.retries.incrementAndGet();
+            long delay = retryDelayMillis << Math.min(page.attempts - 1, 20);
+            long jittered = (long) (delay * (0.5 + ThreadLocalRandom.current().nextDouble()));
+            logger.info("movie #{} – attempt {} failed ({}), retry in {} ms", page.id, page.attempts, e.toString(), jittered);
+            executor.schedule(() -> enqueue(page), jittered, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Stops trying the page in this crawl, it stays pending for the next one
+         */
+        private void defer(Page page, Exception e) {
+            logger.error("movie #{} – out of attempts at {}, left for the next run", page.id, page.url, e);
+            statistics.deferred.incrementAndGet();
+            finished.countDown();
+        }
+
+        /**
+         * Gives the page up for good
+         */
+        private void fail(Page page, Exception e) {
+            logger.error("movie #{} – failed at {}", page.id, page.url, e);
+            statistics.failed.incrementAndGet();
+            frontier.fail(page.id);
+            finished.countDown();
+        }
+
+        /**
+         * Passes the parsed movies to the sink if there are batchSize of them or all is set; sinks are called one at a time
+         */
+        private synchronized void flush(boolean all) {
+            List<Movie> batch;
+            synchronized (parsed) {
+                if ((stopped && !all) || parsed.isEmpty() || (!all && parsed.size() < batchSize)) {
+                    return;
+                }
+                batch = new ArrayList<>(parsed);
+                parsed.clear();
+            }
+
+            List<Long> ids = new ArrayList<>();
+            batch.forEach(movie -> ids.add(movie.getKinopoiskId()));
+            try {
+                sink.accept(batch);
+                frontier.complete(ids);
+                statistics.saved.addAndGet(ids.size());
+            } catch (RuntimeException e) {
+                // the pages stay pending and are crawled again by the next run
+                logger.error("unable to save movies #{}", ids, e);
+            }
+        }
+
+        private void saveFrontier() {
+            try {
+                flush(false);
+                frontier.save();
+            } catch (RuntimeException e) {
+                logger.error("unable to save the frontier", e);
+            }
+        }
+    }
+
+    /**
+     * Pages of a host in flight (at most hostConcurrency) and waiting for a slot
+     */
+    private class Host {
+
+        private final Deque<Page> waiting = new ArrayDeque<>();
+        private int active;
+
+        /**
+         * @return true if the page took a slot and may be scheduled, otherwise it waits for {@link #release}
+         */
+        synchronized boolean offer(Page page) {
+            if (active < hostConcurrency) {
+                active++;
+                return true;
+            }
+            waiting.add(page);
+            return false;
+        }
+
+        /**
+         * @return the next page that takes the released slot, null if there is none
+         */
+        synchronized Page release() {
+            Page next = waiting.poll();
+            if (next == null) {
+                active--;
+            }
+            return next;
+        }
+    }
+
+    private class Page {
+
+        private final Long id;
+        private final String url;
+        private final String host;
+        private int attempts;
+
+        Page(Long id, int attempts) {
+            this.id = id;
+            this.url = String.format(urlPattern, id);
+            this.attempts = attempts;
+            try {
+                this.host = new URL(url).getHost();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("malformed url " + url, e);
+            }
+        }
+    }
+}
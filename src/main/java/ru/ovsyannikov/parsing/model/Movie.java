@@ -3,6 +3,7 @@ package ru.ovsyannikov.parsing.model;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.jsoup.select.NodeTraversor;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -64,6 +65,21 @@ public class Movie {
         }
     }
 
+    /**
+     * Extraction of the fields from a page: css selectors (a pass over the document per field)
+     * or a single pass of {@link MovieExtractor}
+     */
+    public enum Extraction {
+        SELECTORS, SINGLE_PASS
+    }
+
+    static final int MAX_ACTORS = 10;
+    private static final String TITLE_QUERY = "span[itemprop=alternativeHeadline]";
+    private static final String YEAR_QUERY = "a[href^=/lists/m_act%5Byear%5D/]";
+    private static final String DIRECTOR_QUERY = "td[itemprop=director]";
+    private static final String GENRES_QUERY = "span[itemprop=genre]";
+    private static final String ACTORS_QUERY = "li[itemprop=actors]";
+
     private Long id;
     private Long kinopoiskId;
     private String title;
@@ -159,15 +175,53 @@ public class Movie {
     }
 
     public void fillInFields(Document document) {
-        setTitle(document);
-        setYear(document);
-        setDirector(document);
-        setGenres(document);
-        setActors(document);
+        fillInFields(document, Extraction.SELECTORS);
+    }
+
+    /**
+     * Fills title, year, director, genres and the first 10 actors from a kinopoisk page;
+     * both extractions give the same fields and throw the same exceptions
+     */
+    public void fillInFields(Document document, Extraction extraction) {
+        if (extraction == Extraction.SINGLE_PASS) {
+            MovieExtractor extractor = new MovieExtractor();
+            new NodeTraversor(extractor).traverse(document);
+            fillInFields(extractor.getTitles(), extractor.getYears(), extractor.getDirectors(), extractor.getGenres(), extractor.getActors());
+        } else {
+            fillInFields(document.select(TITLE_QUERY), document.select(YEAR_QUERY), document.select(DIRECTOR_QUERY),
+                    document.select(GENRES_QUERY), document.select(ACTORS_QUERY));
+        }
     }
 
     public void setTitle(Document document) {
-        Elements elements = document.select("span[itemprop=alternativeHeadline]");
+        setTitle(document.select(TITLE_QUERY));
+    }
+
+    public void setDirector(Document document) {
+        setDirector(document.select(DIRECTOR_QUERY));
+    }
+
+    public void setGenres(Document document) {
+        setGenres(document.select(GENRES_QUERY));
+    }
+
+    public void setActors(Document document) {
+        setActors(document.select(ACTORS_QUERY));
+    }
+
+    public void setYear(Document document) {
+        setYear(document.select(YEAR_QUERY));
+    }
+
+    private void fillInFields(Elements titles, Elements years, Elements directors, Elements genres, Elements actors) {
+        setTitle(titles);
+        setYear(years);
+        setDirector(directors);
+        setGenres(genres);
+        setActors(actors);
+    }
+
+    private void setTitle(Elements elements) {
         if (elements.isEmpty() || elements.size() > 1) {
             throw new IllegalArgumentException("Incorrect number of items for title!");
         }
@@ -175,8 +229,7 @@ public class Movie {
         this.title = elements.get(0).text();
     }
 
-    public void setDirector(Document document) {
-        Elements elements = document.select("td[itemprop=director]");
+    private void setDirector(Elements elements) {
         if (elements.isEmpty() || elements.size() > 1) {
             throw new IllegalArgumentException("Incorrect number of items for director!");
         }
@@ -184,9 +237,8 @@ public class Movie {
         this.director = elements.get(0).children().isEmpty() ? "-" : elements.get(0).child(0).text();
     }
 
-    public void setGenres(Document document) {
+    private void setGenres(Elements elements) {
         genres = new ArrayList<>();
-        Elements elements = document.select("span[itemprop=genre]");
         if (elements.size() > 1) {
             throw new IllegalArgumentException("Incorrect number of items for genres list!");
         }
@@ -200,17 +252,15 @@ public class Movie {
                 .collect(Collectors.toList()));
     }
 
-    public void setActors(Document document) {
+    private void setActors(Elements elements) {
         actors = new ArrayList<>();
-        Elements elements = document.select("li[itemprop=actors]");
         // first five characters
-        for (int i = 0; i < (elements.size() > 10 ? 10 : elements.size()); i++) {
+        for (int i = 0; i < (elements.size() > MAX_ACTORS ? MAX_ACTORS : elements.size()); i++) {
             actors.add(elements.get(i).child(0).text());
         }
     }
 
-    public void setYear(Document document) {
-        Elements elements = document.select("a[href^=/lists/m_act%5Byear%5D/]");
+    private void setYear(Elements elements) {
         if (elements.isEmpty() || elements.size() > 1) {
             throw new IllegalArgumentException("Incorrect number of items for year!");
         }
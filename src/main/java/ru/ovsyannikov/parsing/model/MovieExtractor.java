@@ -0,0 +1,88 @@
+package ru.ovsyannikov.parsing.model;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Collects the elements of the fields of {@link Movie} in a single traversal of a page, matching them as the selectors
+ * of {@link Movie.Extraction#SELECTORS} do: the tag name exactly, the itemprop value ignoring case, the href prefix
+ * in lower case. Only the first {@link Movie#MAX_ACTORS} actors are kept
+ *
+ * @author Georgii Ovsiannikov
+ * @since 6/9/15
+ */
+class MovieExtractor implements NodeVisitor {
+
+    private static final String ITEMPROP = "itemprop";
+    private static final String YEAR_HREF_PREFIX = "/lists/m_act%5byear%5d/";
+
+    private final Elements titles = new Elements();
+    private final Elements years = new Elements();
+    private final Elements directors = new Elements();
+    private final Elements genres = new Elements();
+    private final Elements actors = new Elements();
+
+    @Override
+    public void head(Node node, int depth) {
+        if (!(node instanceof Element)) {
+            return;
+        }
+
+        Element element = (Element) node;
+        switch (element.tagName()) {
+            case "span":
+                if (hasItemprop(element, "alternativeheadline")) {
+                    titles.add(element);
+                } else if (hasItemprop(element, "genre")) {
+                    genres.add(element);
+                }
+                break;
+            case "td":
+                if (hasItemprop(element, "director")) {
+                    directors.add(element);
+                }
+                break;
+            case "li":
+                if (actors.size() < Movie.MAX_ACTORS && hasItemprop(element, "actors")) {
+                    actors.add(element);
+                }
+                break;
+            case "a":
+                if (element.hasAttr("href") && element.attr("href").toLowerCase().startsWith(YEAR_HREF_PREFIX)) {
+                    years.add(element);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        // nothing to do here
+    }
+
+    Elements getTitles() {
+        return titles;
+    }
+
+    Elements getYears() {
+        return years;
+    }
+
+    Elements getDirectors() {
+        return directors;
+    }
+
+    Elements getGenres() {
+        return genres;
+    }
+
+    Elements getActors() {
+        return actors;
+    }
+
+    private static boolean hasItemprop(Element element, String value) {
+        return element.hasAttr(ITEMPROP) && value.equalsIgnoreCase(element.attr(ITEMPROP));
+    }
+}